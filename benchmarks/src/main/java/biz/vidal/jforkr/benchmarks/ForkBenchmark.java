@@ -0,0 +1,76 @@
+package biz.vidal.jforkr.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import biz.vidal.jforkr.Echo;
+import biz.vidal.jforkr.EchoImpl;
+import biz.vidal.jforkr.JvmController;
+import biz.vidal.jforkr.JvmManager;
+import biz.vidal.jforkr.LaunchMode;
+
+/**
+ * Time to fork a JVM until its service answers, without a pool, by transport
+ * and launch mode.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ForkBenchmark {
+
+    @Param({ "rmi", "socket" })
+    public String transport;
+
+    @Param({ "CLASSWORLDS", "PATHING_JAR", "ARGFILE" })
+    public LaunchMode launchMode;
+
+    private JvmManager jvmManager;
+    private JvmController<Echo> controller;
+
+    @Setup(Level.Trial)
+    public void init() throws Exception {
+        jvmManager = new JvmManager();
+        jvmManager.setTransport(Transports.create(transport));
+        jvmManager.setLaunchMode(launchMode);
+        jvmManager.init();
+    }
+
+    @Benchmark
+    public String coldFork() throws Exception {
+        controller = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+        return controller.getService().echo("Hello");
+    }
+
+    @TearDown(Level.Invocation)
+    public void exit() {
+        if (controller != null) {
+            controller.exit();
+            controller = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        jvmManager.shutdown();
+    }
+
+}
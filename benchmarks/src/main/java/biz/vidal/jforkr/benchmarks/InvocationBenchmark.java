@@ -0,0 +1,77 @@
+package biz.vidal.jforkr.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import biz.vidal.jforkr.Echo;
+import biz.vidal.jforkr.EchoImpl;
+import biz.vidal.jforkr.JvmManager;
+
+/**
+ * Round trips to an already forked JVM, by payload size and transport, from
+ * one caller and from several concurrent callers.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvocationBenchmark {
+
+    @Param({ "rmi", "socket" })
+    public String transport;
+
+    @Param({ "16", "1024", "65536", "1048576" })
+    public int payloadSize;
+
+    private JvmManager jvmManager;
+    private Echo echo;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void fork() throws Exception {
+        jvmManager = new JvmManager();
+        jvmManager.setTransport(Transports.create(transport));
+        jvmManager.setMethodMetrics(false);
+        jvmManager.init();
+        echo = jvmManager.fork("Echo", Echo.class, EchoImpl.class).getService();
+        payload = new byte[payloadSize];
+        new Random(0).nextBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] echo() {
+        return echo.echoBytes(payload);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] concurrentEcho() {
+        return echo.echoBytes(payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        jvmManager.shutdown();
+    }
+
+}
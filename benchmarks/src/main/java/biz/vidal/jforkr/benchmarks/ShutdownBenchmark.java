@@ -0,0 +1,59 @@
+package biz.vidal.jforkr.benchmarks;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import biz.vidal.jforkr.Echo;
+import biz.vidal.jforkr.EchoImpl;
+import biz.vidal.jforkr.JvmManager;
+
+/**
+ * Time for {@link JvmManager#shutdown()} to stop N forked JVMs.
+ * <p>
+ * Each invocation shuts a fresh manager down. Shutdown releases everything
+ * init acquired, shutdown hook, MBean and transport included, so managers
+ * do not pile up over the trial.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShutdownBenchmark {
+
+    @Param({ "1", "4", "8" })
+    public int children;
+
+    private JvmManager jvmManager;
+
+    @Setup(Level.Invocation)
+    public void fork() throws Exception {
+        jvmManager = new JvmManager();
+        jvmManager.init();
+        jvmManager.forkAll("Echo", Echo.class, EchoImpl.class, children).get(60, SECONDS);
+    }
+
+    @Benchmark
+    public void shutdown() {
+        jvmManager.shutdown();
+    }
+
+}
@@ -0,0 +1,27 @@
+package biz.vidal.jforkr.benchmarks;
+
+import biz.vidal.jforkr.transport.RmiTransport;
+import biz.vidal.jforkr.transport.SocketTransport;
+import biz.vidal.jforkr.transport.Transport;
+
+/**
+ * Maps the transport benchmark parameter to a transport.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+class Transports {
+
+    private Transports() {
+    }
+
+    static Transport create(String name) {
+        if (name.equals("rmi")) {
+            return new RmiTransport();
+        } else if (name.equals("socket")) {
+            return new SocketTransport();
+        }
+        throw new IllegalArgumentException("Unknown transport " + name);
+    }
+
+}
@@ -0,0 +1,19 @@
+package biz.vidal.jforkr;
+
+/**
+ * Calls to record and send to a forked JVM in a single round trip, see
+ * {@link JvmController#batch(Batch)}.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ * @param <T>
+ */
+public interface Batch<T> {
+
+    /**
+     * @param service a recording proxy: calls are recorded and return null,
+     *        0 or false, their actual results are returned by the batch
+     */
+    public void record(T service) throws Exception;
+
+}
@@ -0,0 +1,39 @@
+package biz.vidal.jforkr;
+
+import java.util.List;
+
+/**
+ * Thrown when a call of a {@link Batch} fails in the forked JVM. The
+ * following calls are not run.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class BatchFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int index;
+    private final List<Object> results;
+
+    public BatchFailedException(int index, List<Object> results, Throwable cause) {
+        super("Call " + index + " of batch failed", cause);
+        this.index = index;
+        this.results = results;
+    }
+
+    /**
+     * @return the index of the failed call in the batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the results of the calls which ran before the failed one
+     */
+    public List<Object> getResults() {
+        return results;
+    }
+
+}
@@ -0,0 +1,124 @@
+package biz.vidal.jforkr;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.vidal.jforkr.JvmManager.EventReceiver;
+import biz.vidal.jforkr.internal.Event;
+import biz.vidal.jforkr.internal.EventBatcher;
+
+/**
+ * Calls back, from a forked service, the listeners registered by the forking
+ * JVM with {@link ServiceBindings#listen(Class, Object)}.
+ * <p>
+ * Calls on a listener proxy return immediately. They are buffered and sent
+ * to the forking JVM in batches, see {@link JvmManager#setEventDelay(long)},
+ * where the listeners are called in order. Listener methods must return void
+ * and their arguments must be serializable.
+ * <p>
+ * Arguments are not copied when the listener is called, they are serialized
+ * when their batch is sent. Do not modify them after the call, the forking
+ * JVM could see the modification.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class EventSink {
+
+    private static Logger log = LoggerFactory.getLogger(EventSink.class);
+
+    private static volatile EventBatcher batcher;
+    private static final ConcurrentMap<Class<?>, Object> listeners = new ConcurrentHashMap<Class<?>, Object>();
+
+    /**
+     * @return a proxy sending the calls on it to the listener the forking
+     *         JVM registered for the interface. Calls are dropped when there is
+     *         no such listener.
+     */
+    public static <L> L listener(final Class<L> listenerInterface) {
+        Object listener = listeners.get(listenerInterface);
+        if (listener == null) {
+            for (Method method : listenerInterface.getMethods()) {
+                if (method.getReturnType() != void.class) {
+                    throw new IllegalArgumentException("Listener method " + method + " does not return void");
+                }
+            }
+            listener = Proxy.newProxyInstance(listenerInterface.getClassLoader(), new Class<?>[] { listenerInterface }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getDeclaringClass() == Object.class) {
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        } else if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        return "Event proxy for " + listenerInterface.getName();
+                    }
+                    Event event = new Event(listenerInterface.getName(), method.getName(), method.getParameterTypes(), args);
+                    EventBatcher current = batcher;
+                    if (current != null) {
+                        current.publish(event);
+                    } else {
+                        log.debug("Dropping {}, not running in a forked JVM", event);
+                    }
+                    return null;
+                }
+            });
+            Object previous = listeners.putIfAbsent(listenerInterface, listener);
+            if (previous != null) {
+                listener = previous;
+            }
+        }
+        return listenerInterface.cast(listener);
+    }
+
+    /**
+     * Sends the pending events now.
+     */
+    public static void flush() {
+        EventBatcher current = batcher;
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    /**
+     * @return the number of events dropped because the forking JVM did not
+     *         keep up, since this JVM or isolate started
+     */
+    public static long getDroppedCount() {
+        EventBatcher current = batcher;
+        return current != null ? current.getDroppedCount() : 0;
+    }
+
+    /**
+     * Connects the listener proxies to the forking JVM. Called by jforkr when
+     * a forked JVM or an isolate starts, before its services are
+     * instantiated.
+     *
+     * @param uuid the UUID of the JVM
+     * @param maxDelay milliseconds an event may wait for the rest of its batch
+     */
+    public static synchronized void open(EventReceiver receiver, String uuid, long maxDelay) {
+        close();
+        batcher = new EventBatcher(receiver, uuid, maxDelay);
+    }
+
+    /**
+     * Sends the pending events and disconnects the listener proxies. Called
+     * by jforkr when a forked JVM or an isolate exits.
+     */
+    public static synchronized void close() {
+        if (batcher != null) {
+            batcher.close();
+            batcher = null;
+        }
+    }
+
+}
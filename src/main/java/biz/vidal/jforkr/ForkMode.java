@@ -0,0 +1,20 @@
+package biz.vidal.jforkr;
+
+/**
+ * How {@link JvmManager#fork} isolates a service.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public enum ForkMode {
+    /**
+     * In a separate JVM process.
+     */
+    PROCESS,
+    /**
+     * In the current JVM, in a dedicated child first classloader. Calls copy
+     * their arguments and results like a remote call would but no process
+     * is started.
+     */
+    ISOLATE
+}
@@ -0,0 +1,206 @@
+package biz.vidal.jforkr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * JVM tuning of forked JVMs: heap, garbage collector, JIT, system properties
+ * and which arguments of the current JVM they inherit. Options are set
+ * fluently, e.g.
+ * <code>ForkOptions.fastStartup().maxHeap("64m").systemProperty("env", "test")</code>.
+ * <p>
+ * By default forked JVMs inherit all the arguments of the current JVM.
+ * Inherited arguments conflicting with an option that is set are dropped:
+ * <ul>
+ * <li>initial heap: -Xms, -XX:InitialHeapSize= and -XX:MinHeapSize=</li>
+ * <li>max heap: -Xmx and -XX:MaxHeapSize=, and the initial heap arguments
+ * too since they could exceed the new maximum</li>
+ * <li>garbage collector: -XX:+Use&lt;name&gt;GC</li>
+ * <li>JIT tiers: -XX:TieredStopAtLevel=, -XX:+TieredCompilation and
+ * -XX:-TieredCompilation</li>
+ * </ul>
+ * Other inherited arguments are kept, use {@link #dropInherited(String...)}
+ * for the ones which still conflict.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ForkOptions {
+
+    private String initialHeap;
+    private String maxHeap;
+    private String garbageCollector;
+    private Integer tieredStopAtLevel;
+    private boolean inheritVmArguments = true;
+    private List<String> keptPrefixes = new ArrayList<String>();
+    private List<String> droppedPrefixes = new ArrayList<String>();
+    private Map<String, String> systemProperties = new LinkedHashMap<String, String>();
+    private List<String> vmArguments = new ArrayList<String>();
+
+    /**
+     * @return options inheriting all the arguments of the current JVM
+     */
+    public static ForkOptions defaults() {
+        return new ForkOptions();
+    }
+
+    /**
+     * Small JVMs which start fast: 128m heap, serial collector, C1 compiler
+     * only. Suited to mocks and services doing little work.
+     */
+    public static ForkOptions fastStartup() {
+        return new ForkOptions().initialHeap("16m").maxHeap("128m").garbageCollector("SerialGC").tieredStopAtLevel(1);
+    }
+
+    /**
+     * JVMs sized for sustained load: fixed 1g heap, parallel collector, all
+     * JIT tiers.
+     */
+    public static ForkOptions throughput() {
+        return new ForkOptions().initialHeap("1g").maxHeap("1g").garbageCollector("ParallelGC").tieredStopAtLevel(4);
+    }
+
+    /**
+     * @param initialHeap -Xms value, e.g. 64m
+     */
+    public ForkOptions initialHeap(String initialHeap) {
+        this.initialHeap = initialHeap;
+        return this;
+    }
+
+    /**
+     * @param maxHeap -Xmx value, e.g. 256m
+     */
+    public ForkOptions maxHeap(String maxHeap) {
+        this.maxHeap = maxHeap;
+        return this;
+    }
+
+    /**
+     * @param garbageCollector the collector name in -XX:+Use&lt;name&gt;, e.g.
+     *        SerialGC, ParallelGC or G1GC
+     */
+    public ForkOptions garbageCollector(String garbageCollector) {
+        this.garbageCollector = garbageCollector;
+        return this;
+    }
+
+    /**
+     * @param tieredStopAtLevel highest JIT tier, 1 for the C1 compiler only,
+     *        4 for all tiers
+     */
+    public ForkOptions tieredStopAtLevel(Integer tieredStopAtLevel) {
+        this.tieredStopAtLevel = tieredStopAtLevel;
+        return this;
+    }
+
+    public ForkOptions systemProperty(String name, String value) {
+        systemProperties.put(name, value);
+        return this;
+    }
+
+    /**
+     * Adds raw JVM arguments, passed after all the others.
+     */
+    public ForkOptions vmArguments(String... vmArguments) {
+        for (String vmArgument : vmArguments) {
+            this.vmArguments.add(vmArgument);
+        }
+        return this;
+    }
+
+    /**
+     * @param inheritVmArguments false to drop the arguments of the current
+     *        JVM except the ones kept with {@link #keepInherited(String...)}
+     */
+    public ForkOptions inheritVmArguments(boolean inheritVmArguments) {
+        this.inheritVmArguments = inheritVmArguments;
+        return this;
+    }
+
+    /**
+     * Keeps the inherited arguments starting with the given prefixes even
+     * when not inheriting arguments.
+     */
+    public ForkOptions keepInherited(String... prefixes) {
+        for (String prefix : prefixes) {
+            keptPrefixes.add(prefix);
+        }
+        return this;
+    }
+
+    /**
+     * Drops the inherited arguments starting with the given prefixes.
+     */
+    public ForkOptions dropInherited(String... prefixes) {
+        for (String prefix : prefixes) {
+            droppedPrefixes.add(prefix);
+        }
+        return this;
+    }
+
+    /**
+     * @param inherited the arguments of the current JVM
+     * @return the arguments of the forked JVM, in order
+     */
+    List<String> vmArguments(Collection<String> inherited) {
+        List<String> dropped = new ArrayList<String>(droppedPrefixes);
+        if (initialHeap != null || maxHeap != null) {
+            dropped.add("-Xms");
+            dropped.add("-XX:InitialHeapSize=");
+            dropped.add("-XX:MinHeapSize=");
+        }
+        if (maxHeap != null) {
+            dropped.add("-Xmx");
+            dropped.add("-XX:MaxHeapSize=");
+        }
+        if (tieredStopAtLevel != null) {
+            dropped.add("-XX:TieredStopAtLevel=");
+            dropped.add("-XX:+TieredCompilation");
+            dropped.add("-XX:-TieredCompilation");
+        }
+        List<String> args = new ArrayList<String>();
+        for (String vmArgument : inherited) {
+            boolean collector = vmArgument.startsWith("-XX:+Use") && vmArgument.endsWith("GC");
+            if ((inheritVmArguments || startsWithAny(vmArgument, keptPrefixes)) && !startsWithAny(vmArgument, dropped) && !(collector && garbageCollector != null)) {
+                args.add(vmArgument);
+            }
+        }
+        if (initialHeap != null) {
+            args.add("-Xms" + initialHeap);
+        }
+        if (maxHeap != null) {
+            args.add("-Xmx" + maxHeap);
+        }
+        if (garbageCollector != null) {
+            args.add("-XX:+Use" + garbageCollector);
+        }
+        if (tieredStopAtLevel != null) {
+            args.add("-XX:TieredStopAtLevel=" + tieredStopAtLevel);
+        }
+        for (Entry<String, String> property : systemProperties.entrySet()) {
+            args.add("-D" + property.getKey() + "=" + property.getValue());
+        }
+        args.addAll(vmArguments);
+        return args;
+    }
+
+    private static boolean startsWithAny(String vmArgument, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (vmArgument.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "ForkOptions" + vmArguments(new ArrayList<String>());
+    }
+
+}
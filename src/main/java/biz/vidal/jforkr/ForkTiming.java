@@ -0,0 +1,93 @@
+package biz.vidal.jforkr;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Where the time of a fork went, in milliseconds.
+ * <p>
+ * For a fork handed to a pooled JVM, spawn, boot and connect happened ahead
+ * of time and are not part of the total.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ForkTiming {
+
+    private final String processName;
+    private final String uuid;
+    private final boolean pooled;
+    private final long spawnMillis;
+    private final long bootMillis;
+    private final long connectMillis;
+    private final long hostMillis;
+    private final long serviceLookupMillis;
+    private final long totalMillis;
+
+    @ConstructorProperties({ "processName", "uuid", "pooled", "spawnMillis", "bootMillis", "connectMillis", "hostMillis", "serviceLookupMillis", "totalMillis" })
+    public ForkTiming(String processName, String uuid, boolean pooled, long spawnMillis, long bootMillis, long connectMillis, long hostMillis, long serviceLookupMillis, long totalMillis) {
+        this.processName = processName;
+        this.uuid = uuid;
+        this.pooled = pooled;
+        this.spawnMillis = spawnMillis;
+        this.bootMillis = bootMillis;
+        this.connectMillis = connectMillis;
+        this.hostMillis = hostMillis;
+        this.serviceLookupMillis = serviceLookupMillis;
+        this.totalMillis = totalMillis;
+    }
+
+    public String getProcessName() {
+        return processName;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * @return time to start the process
+     */
+    public long getSpawnMillis() {
+        return spawnMillis;
+    }
+
+    /**
+     * @return time from the process start until it reported ready: JVM and
+     *         classworlds boot, transport start and service export
+     */
+    public long getBootMillis() {
+        return bootMillis;
+    }
+
+    /**
+     * @return time to look up the forked JVM controller
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * @return time to hand the service to a pooled JVM, 0 if not pooled
+     */
+    public long getHostMillis() {
+        return hostMillis;
+    }
+
+    public long getServiceLookupMillis() {
+        return serviceLookupMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ForkTiming<" + processName + "@" + uuid + (pooled ? " pooled" : "") + " spawn=" + spawnMillis + "ms boot=" + bootMillis + "ms connect=" + connectMillis + "ms host=" + hostMillis + "ms lookup=" + serviceLookupMillis + "ms total=" + totalMillis + "ms>";
+    }
+
+}
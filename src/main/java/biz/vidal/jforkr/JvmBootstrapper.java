@@ -1,19 +1,54 @@
 package biz.vidal.jforkr;
 
-import static biz.vidal.jforkr.internal.RmiUtil.importService;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
-import java.rmi.RemoteException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.remoting.RemoteLookupFailureException;
-import org.springframework.remoting.rmi.RmiServiceExporter;
+import org.springframework.remoting.support.RemoteInvocation;
 
+import biz.vidal.jforkr.JvmManager.EventReceiver;
 import biz.vidal.jforkr.JvmManager.Ping;
+import biz.vidal.jforkr.JvmManager.Ready;
+import biz.vidal.jforkr.internal.BatchResult;
+import biz.vidal.jforkr.internal.ChildFirstClassLoader;
 import biz.vidal.jforkr.internal.JvmControllerServerImpl;
+import biz.vidal.jforkr.internal.RemoteJvmController;
+import biz.vidal.jforkr.internal.SharedBuffer;
+import biz.vidal.jforkr.internal.SharedBufferRef;
+import biz.vidal.jforkr.internal.StreamChunk;
+import biz.vidal.jforkr.internal.Streams;
+import biz.vidal.jforkr.internal.SwappableInvocationHandler;
+import biz.vidal.jforkr.transport.Codec;
+import biz.vidal.jforkr.transport.Transport;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * @author <a href="http://vidal.biz">Cedric Vidal</a>
@@ -23,9 +58,50 @@ import biz.vidal.jforkr.internal.JvmControllerServerImpl;
 public class JvmBootstrapper<T> {
     private static Logger log = LoggerFactory.getLogger(JvmBootstrapper.class);
 
-    private int rmiRegistryPort;
-    private String serviceClassName;
-    private String serviceInterfaceName;
+    /**
+     * System property holding the milliseconds between heartbeats.
+     */
+    public static final String HEARTBEAT_INTERVAL_PROPERTY = "jforkr.heartbeatInterval";
+
+    /**
+     * System property holding the milliseconds an event may wait for the rest
+     * of its batch.
+     */
+    public static final String EVENT_DELAY_PROPERTY = "jforkr.eventDelay";
+
+    /**
+     * System property holding the milliseconds a streamed result stays open
+     * without its next chunk being pulled.
+     */
+    public static final String STREAM_LEASE_PROPERTY = "jforkr.streamLease";
+
+    private Transport transport;
+    private String parentAddress;
+    private final Map<String, String> serviceClassNames = new LinkedHashMap<String, String>();
+    private final Map<Class<?>, SwappableInvocationHandler> serviceHandlers = new LinkedHashMap<Class<?>, SwappableInvocationHandler>();
+    private Class<?> serviceInterface;
+    private SwappableInvocationHandler serviceHandler;
+    private ClassLoader serviceClassLoader;
+    private volatile SharedBuffer sharedBuffer;
+    private final AtomicLong streamIds = new AtomicLong();
+    private final ConcurrentMap<Long, OpenStream> streams = new ConcurrentHashMap<Long, OpenStream>();
+    private final long streamLease = Long.getLong(STREAM_LEASE_PROPERTY, 60000);
+    private ScheduledExecutorService streamReaper;
+
+    /**
+     * Streamed result waiting for the forking JVM to pull its next chunk.
+     * Guarded by itself.
+     */
+    private static class OpenStream {
+        final Object result;
+        final Iterator<?> iterator;
+        long lastPull = System.currentTimeMillis();
+
+        OpenStream(Object result, Iterator<?> iterator) {
+            this.result = result;
+            this.iterator = iterator;
+        }
+    }
 
     private JvmControllerServerImpl controller;
 
@@ -38,19 +114,28 @@ public class JvmBootstrapper<T> {
 
         // redirectSysIO();
 
-        int port = Integer.parseInt(args[0]);
-        final String serviceInterfaceName = args[1];
-        String serviceClassName = args[2];
+        String transportClassName = args[0];
+        String codecClassName = args[1];
+        String parentAddress = args[2];
         String processName = args[3];
         String uuid = args[4];
 
-        log.info("Booting {} in process {} on JVM {}", new String[] { serviceInterfaceName, processName, uuid });
-
         JvmBootstrapper<Object> bootstrapper = new JvmBootstrapper<Object>();
-        bootstrapper.setRmiRegistryPort(port);
-        bootstrapper.setServiceClassName(serviceClassName);
-        bootstrapper.setServiceInterfaceName(serviceInterfaceName);
+        Transport transport = (Transport) Class.forName(transportClassName).newInstance();
+        transport.setCodec((Codec) Class.forName(codecClassName).newInstance());
+        bootstrapper.setTransport(transport);
+        bootstrapper.setParentAddress(parentAddress);
         bootstrapper.setProcessName(processName);
+
+        // Pooled JVMs are booted without a service and receive one later through host()
+        if (args.length > 5) {
+            for (int i = 5; i + 1 < args.length; i += 2) {
+                bootstrapper.bind(args[i], args[i + 1]);
+            }
+            log.info("Booting {} in process {} on JVM {}", new Object[] { bootstrapper.serviceClassNames.keySet(), processName, uuid });
+        } else {
+            log.info("Booting pooled process {} on JVM {}", processName, uuid);
+        }
         bootstrapper.setUuid(uuid);
         bootstrapper.run();
 
@@ -66,36 +151,317 @@ public class JvmBootstrapper<T> {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
-                log.info("Terminated " + serviceInterfaceName);
+                log.info("Terminated " + processName);
                 log.debug("Keepalive thread still running " + keepaliveRunning);
             }
         });
 
-        Class<?> serviceClass = Class.forName(serviceClassName);
-        Class<?> serviceInterface = Class.forName(serviceInterfaceName);
-
         controller = new JvmControllerServerImpl();
         controller.setBootstrapper(this);
 
-        String serviceName = serviceName(serviceInterface, uuid);
         String controllerName = controllerName(uuid);
 
-        ping = importService(Ping.class, rmiRegistryPort, Ping.class.getSimpleName(), 10, SECONDS);
-        exportService(serviceClass, serviceInterface, serviceName);
-        exportService(controller, JvmController.class, controllerName);
+        transport.start(parentAddress);
+
+        ping = transport.lookup(Ping.class, parentAddress, Ping.class.getSimpleName(), 10, SECONDS);
+        EventSink.open(transport.lookup(EventReceiver.class, parentAddress, EventReceiver.class.getSimpleName(), 10, SECONDS), uuid, Long.getLong(EVENT_DELAY_PROPERTY, 100));
+        if (!serviceClassNames.isEmpty()) {
+            exportServices();
+        }
+        exportService(controller, RemoteJvmController.class, controllerName);
+
+        // Tell the owner process it can look up the controller and service
+        transport.lookup(Ready.class, parentAddress, Ready.class.getSimpleName(), 10, SECONDS).ready(uuid, transport.getAddress());
 
         startKeepalive();
+        watchParent();
+        startStreamReaper();
 
         latch.await();
 
     }
 
+    /**
+     * Instantiates and exports the services of a pooled JVM.
+     *
+     * @param serviceClassNames the service interface and class names, in pairs
+     */
+    public synchronized void host(String processName, String... serviceClassNames) throws Exception {
+        if (!this.serviceClassNames.isEmpty()) {
+            throw new IllegalStateException(this.processName + " already hosts " + this.serviceClassNames.values());
+        }
+        for (int i = 0; i + 1 < serviceClassNames.length; i += 2) {
+            bind(serviceClassNames[i], serviceClassNames[i + 1]);
+        }
+        log.info("Hosting {} in pooled process {} as {}", new Object[] { this.serviceClassNames.keySet(), this.processName, processName });
+        setProcessName(processName);
+        exportServices();
+    }
+
+    /**
+     * Adds a service to instantiate and export under the JVM UUID. The first
+     * one is the main service, the one batches and shared buffer calls run on.
+     */
+    public void bind(String serviceInterfaceName, String serviceClassName) {
+        if (serviceClassNames.containsKey(serviceInterfaceName)) {
+            throw new IllegalArgumentException(serviceInterfaceName + " is already bound to " + serviceClassNames.get(serviceInterfaceName));
+        }
+        serviceClassNames.put(serviceInterfaceName, serviceClassName);
+    }
+
+    private void exportServices() throws Exception {
+        for (Entry<String, String> binding : serviceClassNames.entrySet()) {
+            Class<?> serviceInterface = Class.forName(binding.getKey());
+            Object service = Class.forName(binding.getValue()).newInstance();
+            // Exported once, recycling only swaps the instance calls are forwarded to
+            SwappableInvocationHandler handler = new SwappableInvocationHandler(service);
+            serviceHandlers.put(serviceInterface, handler);
+            if (this.serviceInterface == null) {
+                this.serviceInterface = serviceInterface;
+                this.serviceHandler = handler;
+            }
+            exportService(SwappableInvocationHandler.createProxy(serviceInterface, handler), serviceInterface, serviceName(serviceInterface, uuid));
+        }
+    }
+
+    /**
+     * Replaces the services by new instances whose classes and libraries are
+     * loaded again by a fresh classloader, so that no static state survives.
+     * All the services of the JVM share the new classloader. The types the
+     * services are called through are shared with the previous instances.
+     * The previous instances are closed if they are Closeable.
+     */
+    public synchronized void recycle() throws Exception {
+        if (serviceHandlers.isEmpty()) {
+            throw new IllegalStateException(processName + " hosts no service");
+        }
+        long start = System.currentTimeMillis();
+        Set<String> contractClassNames = new HashSet<String>();
+        // Recycled services keep calling back through the sink of this JVM
+        contractClassNames.add(EventSink.class.getName());
+        for (Class<?> serviceInterface : serviceHandlers.keySet()) {
+            contractClassNames.addAll(ChildFirstClassLoader.contractClassNames(serviceInterface));
+        }
+        ClassLoader parent = JvmBootstrapper.class.getClassLoader();
+        ChildFirstClassLoader classLoader = new ChildFirstClassLoader(classpath(parent), parent, contractClassNames);
+        List<Object> recycled = new ArrayList<Object>();
+        for (Class<?> serviceInterface : serviceHandlers.keySet()) {
+            recycled.add(Class.forName(serviceClassNames.get(serviceInterface.getName()), true, classLoader).newInstance());
+        }
+        Iterator<Object> instances = recycled.iterator();
+        for (SwappableInvocationHandler handler : serviceHandlers.values()) {
+            Object previous = handler.swap(instances.next());
+            if (previous instanceof Closeable) {
+                try {
+                    ((Closeable) previous).close();
+                } catch (IOException e) {
+                    log.warn("Could not close recycled service", e);
+                }
+            }
+        }
+        if (serviceClassLoader instanceof Closeable) {
+            ((Closeable) serviceClassLoader).close();
+        }
+        serviceClassLoader = classLoader;
+        log.info("Recycled {} in {}ms", serviceClassNames.values(), System.currentTimeMillis() - start);
+    }
+
+    private static URL[] classpath(ClassLoader classLoader) throws MalformedURLException {
+        if (classLoader instanceof URLClassLoader) {
+            return ((URLClassLoader) classLoader).getURLs();
+        }
+        String[] paths = System.getProperty("java.class.path", "").split(File.pathSeparator);
+        URL[] urls = new URL[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            urls[i] = new File(paths[i]).toURI().toURL();
+        }
+        return urls;
+    }
+
+    /**
+     * Runs recorded service calls in order, stopping at the first failure.
+     */
+    public BatchResult invokeAll(List<RemoteInvocation> invocations) {
+        if (serviceHandler == null) {
+            throw new IllegalStateException(processName + " hosts no service");
+        }
+        BatchResult result = new BatchResult(invocations.size());
+        for (RemoteInvocation invocation : invocations) {
+            try {
+                Method method = serviceInterface.getMethod(invocation.getMethodName(), invocation.getParameterTypes());
+                result.add(method.invoke(serviceHandler.getTarget(), invocation.getArguments()));
+            } catch (InvocationTargetException e) {
+                result.setFailure(e.getTargetException());
+                break;
+            } catch (Exception e) {
+                result.setFailure(e);
+                break;
+            }
+        }
+        return result;
+    }
+
+    public void attachSharedBuffer(String path, int size) throws IOException {
+        log.debug("Mapping shared buffer {}", path);
+        sharedBuffer = new SharedBuffer(new File(path), size, false);
+    }
+
+    /**
+     * Runs a service call whose large arguments were placed in the shared buffer.
+     */
+    public Object invokeShared(RemoteInvocation invocation, int resultOffset, int resultLimit, int threshold) throws Exception {
+        Object[] args = invocation.getArguments();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof SharedBufferRef) {
+                // Buffers are views of the shared buffer, valid until the call returns
+                args[i] = sharedBuffer.get((SharedBufferRef) args[i], false);
+            }
+        }
+        Method method = serviceInterface.getMethod(invocation.getMethodName(), invocation.getParameterTypes());
+        Object result;
+        try {
+            result = method.invoke(serviceHandler.getTarget(), args);
+        } catch (InvocationTargetException e) {
+            Throwable target = e.getTargetException();
+            if (target instanceof Error) {
+                throw (Error) target;
+            }
+            throw (Exception) target;
+        }
+        int resultSize = SharedBuffer.sizeOf(result);
+        if (resultSize >= threshold && resultOffset + resultSize <= resultLimit) {
+            return sharedBuffer.put(resultOffset, result);
+        }
+        return result;
+    }
+
+    /**
+     * Runs a service call whose result is streamed. The result stays open
+     * until its last chunk is pulled or the forking JVM closes it.
+     *
+     * @return the first chunk of the result, null if the call returned null
+     */
+    public StreamChunk openStream(String serviceInterfaceName, RemoteInvocation invocation, int chunkSize) throws Exception {
+        for (Entry<Class<?>, SwappableInvocationHandler> service : serviceHandlers.entrySet()) {
+            if (service.getKey().getName().equals(serviceInterfaceName)) {
+                Method method = service.getKey().getMethod(invocation.getMethodName(), invocation.getParameterTypes());
+                Object result;
+                try {
+                    result = method.invoke(service.getValue().getTarget(), invocation.getArguments());
+                } catch (InvocationTargetException e) {
+                    Throwable target = e.getTargetException();
+                    if (target instanceof Error) {
+                        throw (Error) target;
+                    }
+                    throw (Exception) target;
+                }
+                if (result == null) {
+                    return null;
+                }
+                OpenStream stream = new OpenStream(result, Streams.iterator(result));
+                long streamId = streamIds.incrementAndGet();
+                synchronized (stream) {
+                    streams.put(streamId, stream);
+                    return nextChunk(streamId, chunkSize);
+                }
+            }
+        }
+        throw new RemoteLookupFailureException("No service " + serviceInterfaceName + " in process " + processName);
+    }
+
+    /**
+     * Pulling a chunk renews the lease of the stream.
+     */
+    public StreamChunk nextChunk(long streamId, int chunkSize) {
+        OpenStream stream = streams.get(streamId);
+        if (stream != null) {
+            synchronized (stream) {
+                // Expired or closed while waiting for the lock otherwise
+                if (streams.get(streamId) == stream) {
+                    StreamChunk chunk;
+                    try {
+                        chunk = StreamChunk.read(streamId, stream.iterator, chunkSize);
+                    } catch (RuntimeException e) {
+                        closeStream(streamId);
+                        throw e;
+                    }
+                    stream.lastPull = System.currentTimeMillis();
+                    if (chunk.isLast()) {
+                        closeStream(streamId);
+                    }
+                    return chunk;
+                }
+            }
+        }
+        throw new IllegalStateException("No open stream " + streamId + " in process " + processName + ", it may have been left unread for longer than " + streamLease + " ms");
+    }
+
+    public void closeStream(long streamId) {
+        OpenStream stream = streams.remove(streamId);
+        if (stream != null) {
+            synchronized (stream) {
+                Streams.close(stream.result);
+            }
+        }
+    }
+
+    /**
+     * Releases the sources of the streams whose next chunk was not pulled
+     * within the lease, e.g. because the caller dropped them without closing
+     * them.
+     */
+    private void startStreamReaper() {
+        streamReaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jforkr-stream-reaper").build());
+        long period = Math.max(streamLease / 4, 10);
+        streamReaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (Entry<Long, OpenStream> entry : streams.entrySet()) {
+                    OpenStream stream = entry.getValue();
+                    synchronized (stream) {
+                        if (System.currentTimeMillis() - stream.lastPull > streamLease) {
+                            log.info("Releasing stream {} not pulled for {} ms", entry.getKey(), streamLease);
+                            closeStream(entry.getKey());
+                        }
+                    }
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
     private AtomicBoolean keepaliveRunning = new AtomicBoolean(false);
 
     private Ping ping;
 
     private String uuid;
 
+    private long heartbeatInterval = Long.getLong(HEARTBEAT_INTERVAL_PROPERTY, 2000);
+
+    /**
+     * The forking JVM never writes to the standard input of forked JVMs, it
+     * only reaches its end when the forking JVM is gone.
+     */
+    private void watchParent() {
+        Thread thread = new Thread("parent-watch") {
+            @Override
+            public void run() {
+                try {
+                    while (System.in.read() >= 0) {
+                        ; // ignore
+                    }
+                } catch (IOException e) {
+                    log.debug("Standard input failed", e);
+                }
+                if (!stop.get()) {
+                    log.error("Owner process is gone");
+                    exit();
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     private void startKeepalive() {
         new Thread("keepalive") {
 
@@ -110,7 +476,7 @@ public class JvmBootstrapper<T> {
                         log.debug("Trying to ping owner process");
                         ping.ping(uuid);
 
-                        Thread.sleep(2000);
+                        Thread.sleep(heartbeatInterval);
                     }
                 } catch (InterruptedException e) {
                     log.warn("Interrupted");
@@ -129,54 +495,42 @@ public class JvmBootstrapper<T> {
         }.start();
     }
 
-    protected void exportService(Object service, Class<?> serviceInterface, String serviceName) throws InstantiationException, IllegalAccessException, RemoteException {
-        log.debug("Exporting " + serviceInterface.getName() + " as " + serviceName);
-        RmiServiceExporter exporter = new RmiServiceExporter();
-        exporter.setService(service);
-        exporter.setServiceInterface(serviceInterface);
-        exporter.setRegistryPort(rmiRegistryPort);
-        exporter.setRegistryHost("localhost");
-        exporter.setServiceName(serviceName);
-        try {
-            exporter.afterPropertiesSet();
-        } catch (RuntimeException e) {
-            log.error("Could not export {} as {}", serviceInterface, serviceName);
-            throw e;
-        }
+    protected void exportService(Object service, Class<?> serviceInterface, String serviceName) throws Exception {
+        transport.export(service, serviceInterface, serviceName);
     }
 
-    protected void exportService(Class<?> serviceClass, Class<?> serviceInterface, String serviceName) throws InstantiationException, IllegalAccessException, RemoteException {
+    protected void exportService(Class<?> serviceClass, Class<?> serviceInterface, String serviceName) throws Exception {
         exportService(serviceClass.newInstance(), serviceInterface, serviceName);
     }
 
-    public int getRmiRegistryPort() {
-        return rmiRegistryPort;
-    }
-
-    public void setRmiRegistryPort(int port) {
-        this.rmiRegistryPort = port;
+    public Transport getTransport() {
+        return transport;
     }
 
-    public String getServiceClassName() {
-        return serviceClassName;
+    public void setTransport(Transport transport) {
+        this.transport = transport;
     }
 
-    public void setServiceClassName(String serviceClassName) {
-        this.serviceClassName = serviceClassName;
+    public String getParentAddress() {
+        return parentAddress;
     }
 
-    public String getServiceInterfaceName() {
-        return serviceInterfaceName;
+    public void setParentAddress(String parentAddress) {
+        this.parentAddress = parentAddress;
     }
 
-    public void setServiceInterfaceName(String serviceInterfaceName) {
-        this.serviceInterfaceName = serviceInterfaceName;
+    /**
+     * @return the service interface and class names, in binding order
+     */
+    public Map<String, String> getServiceClassNames() {
+        return Collections.unmodifiableMap(serviceClassNames);
     }
 
     public void exit() {
         log.info("Exiting " + processName);
         this.stop.set(true);
         this.latch.countDown();
+        EventSink.close();
         System.exit(0);
     }
 
@@ -189,7 +543,7 @@ public class JvmBootstrapper<T> {
     }
 
     public static <T> String serviceName(Class<T> serviceInterface, String uuid) {
-        String serviceName = uuid + "/" + serviceInterface.getSimpleName();
+        String serviceName = uuid + "/" + serviceInterface.getName();
         return serviceName;
     }
 
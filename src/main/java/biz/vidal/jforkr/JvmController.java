@@ -1,5 +1,7 @@
 package biz.vidal.jforkr;
 
+import java.util.List;
+
 /**
  * @author <a href="http://vidal.biz">Cedric Vidal</a>
  *
@@ -7,10 +9,57 @@ package biz.vidal.jforkr;
  */
 public interface JvmController<T> {
     public T getService();
+
+    /**
+     * @return the service hosted by the JVM for the given interface
+     * @throws IllegalArgumentException if the JVM hosts no such service
+     */
+    public <S> S getService(Class<S> serviceInterface);
     public void exit();
     public abstract Integer getDebugPort();
     public abstract void kill();
     public boolean isAlive();
+
+    /**
+     * @return the health of the forked JVM according to its heartbeats
+     */
+    public JvmHealth getHealth();
     public abstract String getProcessName();
+
+    /**
+     * @return the unique identifier of the forked JVM or isolate
+     */
+    public String getUUID();
+
+    /**
+     * @return the most recent lines written by the forked JVM to its
+     *         standard output and error, oldest first
+     */
+    public List<String> recentOutput();
+
+    /**
+     * Replaces the service by a new instance loaded by a fresh classloader,
+     * discarding all its state including static state, without restarting
+     * the JVM. Proxies obtained before keep working and call the new instance.
+     */
+    public void recycle() throws Exception;
+
+    /**
+     * Returns a proxy of an asynchronous mirror of the service interface. Each
+     * method of the async interface must have the same name and parameters as
+     * a service method and return a ListenableFuture of its result, e.g.
+     * <code>ListenableFuture&lt;String&gt; echo(String string)</code>.
+     * Calls return immediately and several calls can be in flight at once.
+     */
+    public <A> A getAsyncService(Class<A> asyncInterface);
+
+    /**
+     * Records the calls made by the batch on the service and runs them in
+     * order in the forked JVM, in a single round trip.
+     *
+     * @return the results of the calls, in order
+     * @throws BatchFailedException if a call fails, the following calls are not run
+     */
+    public List<Object> batch(Batch<T> batch) throws Exception;
 }
 
@@ -0,0 +1,17 @@
+package biz.vidal.jforkr;
+
+/**
+ * Notified once when a forked JVM terminates or an isolate is released, from
+ * an internal thread. Listeners must not block.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface JvmExitListener {
+
+    /**
+     * @param exitCode the exit code of the process, null for an isolate
+     */
+    public void exited(JvmController<?> controller, Integer exitCode);
+
+}
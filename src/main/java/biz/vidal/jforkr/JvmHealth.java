@@ -0,0 +1,26 @@
+package biz.vidal.jforkr;
+
+/**
+ * Health of a forked JVM as seen by the forking JVM from its heartbeats.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public enum JvmHealth {
+    /**
+     * Heartbeats arrive on time.
+     */
+    ALIVE,
+    /**
+     * Heartbeats were missed, the JVM may only be paused.
+     */
+    SUSPECTED,
+    /**
+     * No heartbeat for longer than the lease while the process is still running.
+     */
+    HUNG,
+    /**
+     * The process terminated.
+     */
+    DEAD
+}
@@ -0,0 +1,14 @@
+package biz.vidal.jforkr;
+
+/**
+ * Notified when the health of a forked JVM changes, from the failure
+ * detector thread.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface JvmHealthListener {
+
+    public void healthChanged(JvmController<?> controller, JvmHealth previous, JvmHealth current);
+
+}
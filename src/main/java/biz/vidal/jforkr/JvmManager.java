@@ -2,26 +2,25 @@ package biz.vidal.jforkr;
 
 import static biz.vidal.jforkr.JvmBootstrapper.controllerName;
 import static biz.vidal.jforkr.JvmBootstrapper.serviceName;
-import static biz.vidal.jforkr.internal.RmiUtil.importService;
+import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Predicates.notNull;
 import static com.google.common.collect.Collections2.filter;
 import static com.google.common.collect.Iterables.addAll;
 import static com.google.common.collect.Iterables.transform;
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.io.Files.createTempDir;
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 import static java.lang.System.currentTimeMillis;
 import static java.util.Collections.addAll;
-import static java.util.Collections.max;
 import static java.util.Collections.unmodifiableMap;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.jboss.shrinkwrap.resolver.api.DependencyResolvers.use;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
@@ -30,85 +29,629 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.rmi.NoSuchObjectException;
-import java.rmi.RemoteException;
-import java.rmi.registry.Registry;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
 
 import org.codehaus.classworlds.Launcher;
 import org.jboss.shrinkwrap.resolver.api.maven.MavenDependencyResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
-import org.springframework.remoting.rmi.RmiRegistryFactoryBean;
-import org.springframework.remoting.rmi.RmiServiceExporter;
 
-import biz.vidal.jforkr.internal.AvailablePortFinder;
+import biz.vidal.jforkr.internal.ClassDataSharing;
+import biz.vidal.jforkr.internal.ControllerRegistry;
+import biz.vidal.jforkr.internal.Event;
+import biz.vidal.jforkr.internal.EventDispatcher;
+import biz.vidal.jforkr.internal.FailureDetector;
 import biz.vidal.jforkr.internal.JvmControllerClientImpl;
+import biz.vidal.jforkr.internal.JvmControllerIsolateImpl;
+import biz.vidal.jforkr.internal.LaunchClasspath;
+import biz.vidal.jforkr.internal.Metrics;
+import biz.vidal.jforkr.internal.MetricsInvocationHandler;
+import biz.vidal.jforkr.internal.OutputPump;
+import biz.vidal.jforkr.internal.PrivateFiles;
+import biz.vidal.jforkr.internal.RemoteJvmController;
+import biz.vidal.jforkr.internal.ReplicatedControllerImpl;
+import biz.vidal.jforkr.internal.SharedBufferInvocationHandler;
+import biz.vidal.jforkr.internal.StreamingInvocationHandler;
+import biz.vidal.jforkr.internal.Streams;
+import biz.vidal.jforkr.output.ConsoleOutputSink;
+import biz.vidal.jforkr.output.OutputSink;
+import biz.vidal.jforkr.transport.BinaryCodec;
+import biz.vidal.jforkr.transport.Codec;
+import biz.vidal.jforkr.transport.RmiTransport;
+import biz.vidal.jforkr.transport.Transport;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * @author <a href="http://vidal.biz">Cedric Vidal</a>
  *
  */
-public class JvmManager {
+public class JvmManager implements JvmManagerMXBean {
 
     private static Logger log = LoggerFactory.getLogger(JvmManager.class);
+    private static final String pathSeparator = System.getProperty("path.separator", ":");
+
+    private File workDirectory;
+    private Map<String, File> classworldsConfigurations = new ConcurrentHashMap<String, File>();
     private File classworldsJar;
+    private LaunchMode launchMode = LaunchMode.CLASSWORLDS;
+    private File launchDirectory = new File(System.getProperty("java.io.tmpdir"), "jforkr-launch-" + System.getProperty("user.name"));
+    private LaunchClasspath launchClasspath;
     private Iterable<File> systemClasspath;
 
-    private int rmiRegistryPort;
-    private Registry rmiRegistry;
-    private Set<Integer> usedPorts = new HashSet<Integer>();
-    private Object ping;
+    private Transport transport = new RmiTransport();
+    private Codec codec = new BinaryCodec();
+    private ForkMode forkMode = ForkMode.PROCESS;
+    private ForkOptions forkOptions = ForkOptions.defaults();
+    private boolean initialized = false;
+    private Thread shutdownHook;
+    private SimplePing ping;
     private DisposableBean pingDisposer;
-    private DisposableBean rmiRegistryDisposer;
-	private List<JvmController<?>> controllers = new ArrayList<JvmController<?>>();
+    private SimpleReady ready;
+    private DisposableBean readyDisposer;
+    private SimpleEventReceiver eventReceiver;
+    private DisposableBean eventReceiverDisposer;
+    private List<JvmExitListener> exitListeners = new CopyOnWriteArrayList<JvmExitListener>();
+    private ControllerRegistry controllers = new ControllerRegistry(exitListeners);
+
+    private boolean classDataSharing = false;
+    private File classDataSharingDirectory = new File(System.getProperty("java.io.tmpdir"), "jforkr-cds-" + System.getProperty("user.name"));
+    private ClassDataSharing classDataSharingArchive;
+
+    private long heartbeatInterval = 2000;
+    private long lease = 10000;
+    private long shutdownTimeout = 5000;
+    private long eventDelay = 100;
+    private boolean killHungJvms = false;
+    private List<JvmHealthListener> healthListeners = new CopyOnWriteArrayList<JvmHealthListener>();
+    private FailureDetector failureDetector;
+
+    private static final AtomicInteger instanceCounter = new AtomicInteger();
+
+    private Metrics metrics = new Metrics();
+    private boolean methodMetrics = true;
+    private ObjectName objectName;
+
+    private List<OutputSink> outputSinks = Lists.<OutputSink>newArrayList(new ConsoleOutputSink());
+    private int outputBufferLines = 1000;
+    private OutputPump outputPump;
+
+    private int sharedBufferSize = 0;
+    private int sharedBufferSlots = 4;
+    private int sharedBufferThreshold = 64 * 1024;
+    private int streamChunkSize = 256;
+    private long streamLease = 60000;
+
+    private int poolSize = 0;
+    private BlockingQueue<JvmControllerClientImpl<?>> pool = new LinkedBlockingQueue<JvmControllerClientImpl<?>>();
+    private AtomicInteger poolBooting = new AtomicInteger();
+    private AtomicInteger poolCounter = new AtomicInteger();
+    private ListeningExecutorService executor;
 
     public void init() throws Exception {
 
-        if(rmiRegistry == null) {
-            classworldsJar = findClassworldsJar();
+        if(!initialized) {
+            workDirectory = createTempDir();
+            // Holds the shared buffers, other users must not read the calls
+            PrivateFiles.restrict(workDirectory);
             systemClasspath = getSystemClasspath();
             log.debug("Classpath is \n" + Joiner.on("\n").join(systemClasspath));
 
-            rmiRegistryPort = AvailablePortFinder.getNextAvailable();
-            RmiRegistryFactoryBean rmiRegistryFactory = createRmiRegistry(rmiRegistryPort);
-            rmiRegistryDisposer = rmiRegistryFactory;
-            rmiRegistry = rmiRegistryFactory.getObject();
+            if (launchMode == LaunchMode.ARGFILE && !LaunchClasspath.isArgFileSupported()) {
+                log.info("Argument files require Java {} or later, forked JVMs will start with a pathing jar", LaunchClasspath.ARGFILE_MIN_JAVA_VERSION);
+                launchMode = LaunchMode.PATHING_JAR;
+            }
+            if (launchMode == LaunchMode.CLASSWORLDS) {
+                // May resolve classworlds from a Maven repository, only done when needed
+                classworldsJar = findClassworldsJar();
+            } else {
+                launchClasspath = new LaunchClasspath(launchDirectory, systemClasspath);
+            }
+
+            if (classDataSharing) {
+                if (ClassDataSharing.isSupported()) {
+                    String key = Hashing.sha1().hashString(Joiner.on(pathSeparator).useForNull("").join(System.getProperty("java.home"), System.getProperty("java.vm.version"), launchMode, classworldsJar, JvmBootstrapper.class.getName(), systemClasspath), UTF_8).toString();
+                    try {
+                        classDataSharingArchive = new ClassDataSharing(classDataSharingDirectory, key);
+                    } catch (IOException e) {
+                        log.warn("Forked JVMs will start without class data sharing: {}", e.getMessage());
+                    }
+                } else {
+                    log.info("Class data sharing requires Java {} or later, forked JVMs will start without it", ClassDataSharing.MIN_JAVA_VERSION);
+                }
+            }
+
+            outputPump = new OutputPump(outputSinks);
+            outputPump.start();
+
+            transport.setCodec(codec);
+            transport.start(null);
 
             ping = createPing();
-            pingDisposer = export(ping, Ping.class, Ping.class.getSimpleName(), rmiRegistry);
+            pingDisposer = transport.export(ping, Ping.class, Ping.class.getSimpleName());
+
+            ready = new SimpleReady();
+            readyDisposer = transport.export(ready, Ready.class, Ready.class.getSimpleName());
+
+            eventReceiver = new SimpleEventReceiver();
+            eventReceiverDisposer = transport.export(eventReceiver, EventReceiver.class, EventReceiver.class.getSimpleName());
+            exitListeners.add(0, new JvmExitListener() {
+                @Override
+                public void exited(JvmController<?> controller, Integer exitCode) {
+                    eventReceiver.forget(controller.getUUID());
+                }
+            });
 
-            lbPort = AvailablePortFinder.getNextAvailable(usedPorts.isEmpty() ? 8080 : max(usedPorts) + 1);
+            healthListeners.add(0, new JvmHealthListener() {
+                @Override
+                public void healthChanged(JvmController<?> controller, JvmHealth previous, JvmHealth current) {
+                    if (current == JvmHealth.DEAD) {
+                        controllers.exited(controller, ((JvmControllerClientImpl<?>) controller).getExitCode());
+                        pool.remove(controller);
+                        ping.forget(controller.getUUID());
+                    }
+                }
+            });
+            failureDetector = new FailureDetector(ping.lastPings(), healthListeners, heartbeatInterval, lease, killHungJvms);
+            failureDetector.start();
+
+            executor = listeningDecorator(Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jforkr-%d").build()));
+            refillPool();
+
+            registerMBean();
 
-            Runtime.getRuntime().addShutdownHook(new Thread("forked-process-terminator") {
+            initialized = true;
+
+            shutdownHook = new Thread("forked-process-terminator") {
                 @Override
                 public void run() {
                     shutdown();
                 }
-            });
+            };
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
         } else {
             pruneDeadProcesses();
         }
 
     }
 
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Transport used to call forked JVMs, {@link RmiTransport} by default.
+     * Must be set before {@link #init()}.
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Codec encoding call arguments and results, {@link BinaryCodec} by
+     * default. Forked JVMs are started with the same codec. Must be set
+     * before {@link #init()}.
+     */
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Milliseconds between the heartbeats sent by forked JVMs, a JVM missing
+     * two heartbeats is {@link JvmHealth#SUSPECTED}. Defaults to 2 seconds.
+     * Must be set before {@link #init()}.
+     */
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public long getLease() {
+        return lease;
+    }
+
+    /**
+     * Milliseconds without heartbeat after which a running JVM is
+     * {@link JvmHealth#HUNG}. Defaults to 10 seconds. Must be set before
+     * {@link #init()}.
+     */
+    public void setLease(long lease) {
+        this.lease = lease;
+    }
+
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * Milliseconds {@link #shutdown()} waits for all the forked JVMs to exit
+     * before killing the remaining ones. Defaults to 5 seconds.
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    public long getEventDelay() {
+        return eventDelay;
+    }
+
+    /**
+     * Maximum milliseconds an event sent through {@link EventSink} waits in
+     * the forked JVM for the rest of its batch. Defaults to 100 milliseconds.
+     * Must be set before {@link #init()}.
+     */
+    public void setEventDelay(long eventDelay) {
+        this.eventDelay = eventDelay;
+    }
+
+    public boolean isKillHungJvms() {
+        return killHungJvms;
+    }
+
+    /**
+     * Kills forked JVMs once they are {@link JvmHealth#HUNG}. Disabled by
+     * default. Must be set before {@link #init()}.
+     */
+    public void setKillHungJvms(boolean killHungJvms) {
+        this.killHungJvms = killHungJvms;
+    }
+
+    /**
+     * @param listener notified once of the exit of each forked JVM or isolate
+     */
+    public void addExitListener(JvmExitListener listener) {
+        exitListeners.add(listener);
+    }
+
+    public void removeExitListener(JvmExitListener listener) {
+        exitListeners.remove(listener);
+    }
+
+    /**
+     * @return the controller of a live JVM, null if unknown or exited
+     */
+    public JvmController<?> getController(String uuid) {
+        return controllers.get(uuid);
+    }
+
+    /**
+     * @return the most recently forked live JVM with that process name, null if none
+     */
+    public JvmController<?> getControllerByProcessName(String processName) {
+        return controllers.getByProcessName(processName);
+    }
+
+    /**
+     * @return a live view of the controllers of the live JVMs
+     */
+    public Collection<JvmController<?>> getControllers() {
+        return controllers.all();
+    }
+
+    public void addHealthListener(JvmHealthListener listener) {
+        healthListeners.add(listener);
+    }
+
+    public void removeHealthListener(JvmHealthListener listener) {
+        healthListeners.remove(listener);
+    }
+
+    public List<OutputSink> getOutputSinks() {
+        return outputSinks;
+    }
+
+    /**
+     * Sinks receiving the output lines of forked JVMs, a
+     * {@link ConsoleOutputSink} by default. Must be set before {@link #init()}.
+     */
+    public void setOutputSinks(List<OutputSink> outputSinks) {
+        this.outputSinks = outputSinks;
+    }
+
+    public int getOutputBufferLines() {
+        return outputBufferLines;
+    }
+
+    /**
+     * Number of output lines of each forked JVM kept for
+     * {@link JvmController#recentOutput()}. Defaults to 1000.
+     */
+    public void setOutputBufferLines(int outputBufferLines) {
+        this.outputBufferLines = outputBufferLines;
+    }
+
+    public LaunchMode getLaunchMode() {
+        return launchMode;
+    }
+
+    /**
+     * @param launchMode how forked JVMs receive their classpath, defaults to
+     *        {@link LaunchMode#CLASSWORLDS}. Must be set before {@link #init()}.
+     */
+    public void setLaunchMode(LaunchMode launchMode) {
+        this.launchMode = launchMode;
+    }
+
+    public File getLaunchDirectory() {
+        return launchDirectory;
+    }
+
+    /**
+     * Where pathing jars and argument files are kept across runs, defaults
+     * to jforkr-launch-&lt;user name&gt; in the temporary directory. It is made
+     * private to the current user, forking fails if another user owns it.
+     */
+    public void setLaunchDirectory(File launchDirectory) {
+        this.launchDirectory = launchDirectory;
+    }
+
+    public ForkOptions getForkOptions() {
+        return forkOptions;
+    }
+
+    /**
+     * @param forkOptions the JVM tuning of forked and pooled JVMs when fork
+     *        is not given any. Ignored in {@link ForkMode#ISOLATE} mode.
+     */
+    public void setForkOptions(ForkOptions forkOptions) {
+        this.forkOptions = forkOptions;
+    }
+
+    public ForkMode getForkMode() {
+        return forkMode;
+    }
+
+    /**
+     * Whether {@link #fork} starts a JVM process or only isolates the service
+     * in a classloader of the current JVM, {@link ForkMode#PROCESS} by default.
+     */
+    public void setForkMode(ForkMode forkMode) {
+        this.forkMode = forkMode;
+    }
+
+    public boolean isMethodMetrics() {
+        return methodMetrics;
+    }
+
+    /**
+     * Measures the latency of every service call, see
+     * {@link #getMethodStats()}. Enabled by default.
+     */
+    public void setMethodMetrics(boolean methodMetrics) {
+        this.methodMetrics = methodMetrics;
+    }
+
+    /**
+     * @return the name this manager is registered under in the platform MBean
+     *         server, null before {@link #init()} or if registration failed
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    protected void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("biz.vidal.jforkr:type=JvmManager,name=" + instanceCounter.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (Exception e) {
+            log.warn("Could not register JvmManager MBean", e);
+        }
+    }
+
+    protected void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                log.debug("Could not unregister {}", objectName, e);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public int getLiveJvmCount() {
+        return controllers.size();
+    }
+
+    @Override
+    public long getForkCount() {
+        return metrics.getForkCount();
+    }
+
+    @Override
+    public List<ForkTiming> getRecentForks() {
+        return metrics.getRecentForks();
+    }
+
+    @Override
+    public List<LatencyStats> getForkPhaseStats() {
+        return metrics.getForkPhaseStats();
+    }
+
+    @Override
+    public List<LatencyStats> getMethodStats() {
+        return metrics.getMethodStats();
+    }
+
+    @Override
+    public void resetStats() {
+        metrics.reset();
+    }
+
+    public int getSharedBufferSize() {
+        return sharedBufferSize;
+    }
+
+    /**
+     * Size of the memory mapped file created for each forked JVM the first
+     * time a large byte array or buffer is passed to or returned by its
+     * service. Defaults to 0, everything goes through the transport.
+     * <p>
+     * The file is only accessible to the current user. A byte array argument
+     * is copied out of it in the forked JVM, but a ByteBuffer argument is
+     * handed over as a read-only view of the shared buffer, only valid during
+     * the call: the service must copy it to keep its content afterwards.
+     */
+    public void setSharedBufferSize(int sharedBufferSize) {
+        this.sharedBufferSize = sharedBufferSize;
+    }
+
+    public int getSharedBufferSlots() {
+        return sharedBufferSlots;
+    }
+
+    /**
+     * Number of calls to a forked JVM which can use its shared buffer at
+     * once, each one using an equal part of it. When all the slots are in
+     * use, calls go through the transport. Defaults to 4.
+     */
+    public void setSharedBufferSlots(int sharedBufferSlots) {
+        this.sharedBufferSlots = sharedBufferSlots;
+    }
+
+    public int getSharedBufferThreshold() {
+        return sharedBufferThreshold;
+    }
+
+    /**
+     * Size from which byte arrays and buffers go through the shared buffer
+     * instead of the transport. Defaults to 64KB.
+     */
+    public void setSharedBufferThreshold(int sharedBufferThreshold) {
+        this.sharedBufferThreshold = sharedBufferThreshold;
+    }
+
+    public int getStreamChunkSize() {
+        return streamChunkSize;
+    }
+
+    /**
+     * Maximum number of elements sent per pull when a service method result
+     * is streamed, see {@link RemoteStream}. Defaults to 256.
+     */
+    public void setStreamChunkSize(int streamChunkSize) {
+        this.streamChunkSize = streamChunkSize;
+    }
+
+    public long getStreamLease() {
+        return streamLease;
+    }
+
+    /**
+     * Milliseconds a forked JVM keeps a streamed result open without its next
+     * chunk being pulled, after which it releases its source. Pulling a chunk
+     * renews the lease. Defaults to 60 seconds.
+     */
+    public void setStreamLease(long streamLease) {
+        this.streamLease = streamLease;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Number of idle JVMs booted ahead of time so that {@link #fork} does not
+     * pay the JVM startup. Defaults to 0, no pooling. Ignored in
+     * {@link ForkMode#ISOLATE} mode, which starts no JVM.
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public boolean isClassDataSharing() {
+        return classDataSharing;
+    }
+
+    /**
+     * Starts forked JVMs with a Class Data Sharing archive recorded by the
+     * first fork, so that they share parsed and verified classes instead of
+     * loading them from scratch. Must be set before {@link #init()}. Off by
+     * default, requires Java 13 or later.
+     */
+    public void setClassDataSharing(boolean classDataSharing) {
+        this.classDataSharing = classDataSharing;
+    }
+
+    public File getClassDataSharingDirectory() {
+        return classDataSharingDirectory;
+    }
+
+    /**
+     * Where archives are kept across runs, defaults to jforkr-cds-&lt;user&gt;
+     * in the temporary directory. It is made private to the current user,
+     * forked JVMs start without class data sharing if another user owns it.
+     */
+    public void setClassDataSharingDirectory(File classDataSharingDirectory) {
+        this.classDataSharingDirectory = classDataSharingDirectory;
+    }
+
+    /**
+     * Records the class data sharing archive with a dedicated fork of the
+     * given service so that all following forks start with it. Does nothing
+     * if class data sharing is off or the archive already exists.
+     */
+    public void trainClassDataSharing(Class<?> serviceInterface, Class<?> serviceClass) throws IOException, InterruptedException {
+        if (classDataSharingArchive == null || classDataSharingArchive.isPublished()) {
+            return;
+        }
+        if (classDataSharingArchive.isRecording()) {
+            log.info("Class data sharing archive is already being recorded by another forked JVM");
+            return;
+        }
+        JvmControllerClientImpl<Object> training = launch("cds-training", forkOptions, serviceInterface.getName(), serviceClass.getName());
+        training.exit();
+        training.waitFor();
+        // The archive is published once the output of the training JVM is drained
+        long deadline = currentTimeMillis() + 10000;
+        while (classDataSharingArchive.isRecording() && currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Exits are detected as they happen, this only catches up with JVMs whose
+     * exit was not reported yet.
+     */
     public void pruneDeadProcesses() {
-        for (JvmController<?> ctrl : newArrayList(controllers)) {
+        for (JvmController<?> ctrl : controllers.all()) {
             if(!ctrl.isAlive()) {
-                controllers.remove(ctrl);
+                controllers.exited(ctrl, ctrl instanceof JvmControllerClientImpl ? ((JvmControllerClientImpl<?>) ctrl).getExitCode() : null);
             }
         }
     }
@@ -150,17 +693,6 @@ public class JvmManager {
         return new SimplePing();
     }
 
-    protected DisposableBean export(Object service, Class<?> serviceInterface, String serviceName, Registry registry) throws InstantiationException, IllegalAccessException, RemoteException {
-        log.debug("Exporting " + serviceInterface.getName());
-        RmiServiceExporter exporter = new RmiServiceExporter();
-        exporter.setService(service);
-        exporter.setServiceInterface(serviceInterface);
-        exporter.setRegistry(registry);
-        exporter.setServiceName(serviceName);
-        exporter.afterPropertiesSet();
-        return exporter;
-    }
-
     public interface Ping {
         public void ping(String uuid);
     }
@@ -176,24 +708,373 @@ public class JvmManager {
         public Map<String, Long> lastPings() {
             return unmodifiableMap(lastPings);
         }
+        public void forget(String uuid) {
+            lastPings.remove(uuid);
+        }
     }
 
-    protected RmiRegistryFactoryBean createRmiRegistry(int port) throws Exception {
-        RmiRegistryFactoryBean rmiRegistryFactory = new RmiRegistryFactoryBean();
-        rmiRegistryFactory.setPort(port);
-        rmiRegistryFactory.setAlwaysCreate(true);
-        rmiRegistryFactory.afterPropertiesSet();
-        return rmiRegistryFactory;
+    /**
+     * Called by forked JVMs once their controller and service are exported.
+     */
+    public interface Ready {
+        /**
+         * @param address the transport address to look up the forked JVM services
+         */
+        public void ready(String uuid, String address);
+    }
+
+    /**
+     * Receives the batches of events sent through {@link EventSink} by forked
+     * JVMs.
+     */
+    public interface EventReceiver {
+        public void receive(String uuid, List<Event> events);
+    }
+
+    public static class SimpleEventReceiver implements EventReceiver {
+        private static Logger log = LoggerFactory.getLogger(SimpleEventReceiver.class);
+        private ConcurrentHashMap<String, EventDispatcher> dispatchers = new ConcurrentHashMap<String, EventDispatcher>();
+
+        /**
+         * Registers a JVM about to be forked, its events are held until its
+         * listeners are registered.
+         */
+        public void expect(String uuid) {
+            dispatchers.putIfAbsent(uuid, new EventDispatcher(uuid));
+        }
+
+        /**
+         * @param listeners the listeners of the JVM by listener interface
+         */
+        public void listen(String uuid, Map<Class<?>, Object> listeners) {
+            expect(uuid);
+            dispatchers.get(uuid).listen(listeners);
+        }
+
+        public void forget(String uuid) {
+            dispatchers.remove(uuid);
+        }
+
+        @Override
+        public void receive(String uuid, List<Event> events) {
+            EventDispatcher dispatcher = dispatchers.get(uuid);
+            if (dispatcher == null) {
+                log.debug("Dropping {} events from unknown JVM {}", events.size(), uuid);
+                return;
+            }
+            dispatcher.dispatch(events);
+        }
+    }
+
+    public static class SimpleReady implements Ready {
+        private static Logger log = LoggerFactory.getLogger(SimpleReady.class);
+        private ConcurrentHashMap<String, SettableFuture<String>> pending = new ConcurrentHashMap<String, SettableFuture<String>>();
+
+        /**
+         * Registers a JVM about to be forked.
+         *
+         * @return a future of the JVM transport address, completed when the JVM reports it is ready
+         */
+        public ListenableFuture<String> expect(String uuid) {
+            SettableFuture<String> future = SettableFuture.create();
+            pending.put(uuid, future);
+            return future;
+        }
+
+        @Override
+        public void ready(String uuid, String address) {
+            log.debug("Ready {} at {}", uuid, address);
+            SettableFuture<String> future = pending.remove(uuid);
+            if (future != null) {
+                future.set(address);
+            }
+        }
+
+        public void abort(String uuid, Throwable cause) {
+            SettableFuture<String> future = pending.remove(uuid);
+            if (future != null) {
+                future.setException(cause);
+            }
+        }
     }
 
-    @SuppressWarnings("unchecked")
     public <T> JvmController<T> fork(String processName, Class<T> serviceInterface, Class<?> serviceClass) throws IOException, FileNotFoundException {
+        return forkServices(processName, serviceInterface, new ServiceBindings().put(serviceInterface, serviceClass), null);
+    }
+
+    /**
+     * Forks a JVM tuned with the given options instead of the manager's.
+     * Pooled JVMs are booted with the manager's options so they are not
+     * used.
+     */
+    public <T> JvmController<T> fork(String processName, Class<T> serviceInterface, Class<?> serviceClass, ForkOptions options) throws IOException, FileNotFoundException {
+        return forkServices(processName, serviceInterface, new ServiceBindings().put(serviceInterface, serviceClass), options);
+    }
+
+    /**
+     * Forks a single JVM hosting several services, exported under the same
+     * JVM UUID. Services are retrieved with
+     * {@link JvmController#getService(Class)}, the first bound one is also
+     * returned by {@link JvmController#getService()}.
+     */
+    public JvmController<?> fork(String processName, ServiceBindings bindings) throws IOException, FileNotFoundException {
+        return forkServices(processName, bindings.getMainInterface(), bindings, null);
+    }
+
+    /**
+     * Forks a single JVM hosting several services, tuned with the given
+     * options, see {@link #fork(String, ServiceBindings)} and
+     * {@link #fork(String, Class, Class, ForkOptions)}.
+     */
+    public JvmController<?> fork(String processName, ServiceBindings bindings, ForkOptions options) throws IOException, FileNotFoundException {
+        return forkServices(processName, bindings.getMainInterface(), bindings, options);
+    }
+
+    /**
+     * @param options the JVM tuning, null for the manager's
+     */
+    protected <T> JvmController<T> forkServices(String processName, Class<T> serviceInterface, ServiceBindings bindings, ForkOptions options) throws IOException, FileNotFoundException {
+
+        if (forkMode == ForkMode.ISOLATE) {
+            return isolate(processName, serviceInterface, bindings);
+        }
+
+        long start = currentTimeMillis();
+        long hostMillis = 0;
+        // Pooled JVMs were booted with the manager's options
+        JvmControllerClientImpl<T> controller = null;
+        if (options == null) {
+            controller = claimPooled(processName, bindings);
+        }
+        boolean pooled = controller != null;
+        if (pooled) {
+            hostMillis = currentTimeMillis() - start;
+        } else {
+            List<String> classNames = bindings.classNames();
+            controller = launch(processName, options != null ? options : forkOptions, classNames.toArray(new String[classNames.size()]));
+        }
 
-        List<File> libs = new ArrayList<File>();
-        addAll(libs, systemClasspath);
+        long lookupStart = currentTimeMillis();
+        controller.setServiceInterface(serviceInterface);
+        for (Class<?> boundInterface : bindings.asMap().keySet()) {
+            Object serviceProxy = lookup(controller, boundInterface);
+            if (boundInterface == serviceInterface) {
+                controller.setRemoteService(serviceInterface.cast(serviceProxy));
+            }
+        }
+        controller.setService(controller.getService(serviceInterface));
+        long lookupMillis = currentTimeMillis() - lookupStart;
+        eventReceiver.listen(controller.getUUID(), bindings.getListeners());
 
-        File classworldsConf = File.createTempFile("classworlds", "conf");
-        writeClassworldsConfiguration(new FileOutputStream(classworldsConf), JvmBootstrapper.class.getName(), libs);
+        controllers.register(controller);
+        ForkTiming timing = new ForkTiming(processName, controller.getUUID(), pooled, controller.getSpawnMillis(), controller.getBootMillis(), controller.getConnectMillis(), hostMillis, lookupMillis, currentTimeMillis() - start);
+        log.debug("{}", timing);
+        metrics.recordFork(timing);
+        refillPool();
+        return controller;
+    }
+
+    /**
+     * Looks up a service of a forked JVM and wraps it. Only the main service
+     * passes large arguments through the shared buffer.
+     *
+     * @return the transport proxy of the service
+     */
+    private <S> S lookup(JvmControllerClientImpl<?> controller, Class<S> serviceInterface) {
+        String serviceName = serviceName(serviceInterface, controller.getUUID());
+        S remoteService = transport.lookup(serviceInterface, controller.getAddress(), serviceName, 10, SECONDS);
+        S serviceProxy = remoteService;
+        if (serviceInterface == controller.getServiceInterface() && sharedBufferSize > 0) {
+            File sharedBufferFile = new File(workDirectory, "shared-" + controller.getUUID() + ".buf");
+            serviceProxy = SharedBufferInvocationHandler.createProxy(serviceInterface, new SharedBufferInvocationHandler(serviceProxy, controller.getDelegate(), sharedBufferFile, sharedBufferSize, sharedBufferSlots, sharedBufferThreshold));
+        }
+        if (Streams.hasStreamedMethod(serviceInterface)) {
+            serviceProxy = StreamingInvocationHandler.createProxy(serviceInterface, new StreamingInvocationHandler(serviceProxy, serviceInterface, controller.getDelegate(), streamChunkSize));
+        }
+        if (methodMetrics) {
+            serviceProxy = MetricsInvocationHandler.createProxy(serviceInterface, serviceProxy, metrics, controller.getProcessName());
+        }
+        controller.setService(serviceInterface, serviceProxy);
+        return remoteService;
+    }
+
+    /**
+     * Hosts the services in a child first classloader of the current JVM built
+     * from the same classpath as forked JVMs.
+     */
+    protected <T> JvmController<T> isolate(String processName, Class<T> serviceInterface, ServiceBindings bindings) throws IOException {
+        long start = currentTimeMillis();
+        String uuid = UUID.randomUUID().toString();
+        log.info("Isolating process {} into classloader {}", processName, uuid);
+        List<URL> urls = new ArrayList<URL>();
+        for (File file : systemClasspath) {
+            urls.add(file.toURI().toURL());
+        }
+        final JvmControllerIsolateImpl<T> controller = new JvmControllerIsolateImpl<T>(processName, uuid, serviceInterface, bindings, urls.toArray(new URL[urls.size()]), codec, executor);
+        controller.setEvents(eventReceiver, eventDelay);
+        eventReceiver.listen(uuid, bindings.getListeners());
+        try {
+            controller.start();
+        } catch (Exception e) {
+            throw new IOException("Could not instantiate " + bindings + " in isolate " + processName, e);
+        }
+        controller.setOnExit(new Runnable() {
+            @Override
+            public void run() {
+                controllers.exited(controller, null);
+            }
+        });
+        long bootMillis = currentTimeMillis() - start;
+
+        if (methodMetrics) {
+            for (Class<?> boundInterface : bindings.asMap().keySet()) {
+                wrapMetrics(controller, boundInterface);
+            }
+            controller.setService(controller.getService(serviceInterface));
+        }
+        controllers.register(controller);
+        metrics.recordFork(new ForkTiming(processName, uuid, false, 0, bootMillis, 0, 0, 0, currentTimeMillis() - start));
+        return controller;
+    }
+
+    private <S> void wrapMetrics(JvmControllerIsolateImpl<?> controller, Class<S> serviceInterface) {
+        controller.setService(serviceInterface, MetricsInvocationHandler.createProxy(serviceInterface, controller.getService(serviceInterface), metrics, controller.getProcessName()));
+    }
+
+    /**
+     * Forks in the background, see {@link #fork(String, Class, Class)}.
+     */
+    public <T> ListenableFuture<JvmController<T>> forkAsync(final String processName, final Class<T> serviceInterface, final Class<?> serviceClass) {
+        return executor.submit(new Callable<JvmController<T>>() {
+            @Override
+            public JvmController<T> call() throws Exception {
+                return fork(processName, serviceInterface, serviceClass);
+            }
+        });
+    }
+
+    /**
+     * Forks count JVMs at once, overlapping their boots. Processes are named
+     * processName-0 to processName-(count-1).
+     *
+     * @return a future of the controllers in process name order, failed if any fork failed
+     */
+    public <T> ListenableFuture<List<JvmController<T>>> forkAll(String processName, Class<T> serviceInterface, Class<?> serviceClass, int count) {
+        List<ListenableFuture<JvmController<T>>> forks = new ArrayList<ListenableFuture<JvmController<T>>>(count);
+        for (int i = 0; i < count; i++) {
+            forks.add(forkAsync(processName + "-" + i, serviceInterface, serviceClass));
+        }
+        return allAsList(forks);
+    }
+
+    /**
+     * Forks count replicas of a service, see
+     * {@link #forkAll(String, Class, Class, int)}, behind a single proxy
+     * routing calls round robin.
+     */
+    public <T> ReplicatedController<T> forkReplicated(String processName, Class<T> serviceInterface, Class<?> serviceClass, int count) throws IOException {
+        return forkReplicated(processName, serviceInterface, serviceClass, count, LoadBalancing.ROUND_ROBIN);
+    }
+
+    /**
+     * Forks count replicas of a service, see
+     * {@link #forkAll(String, Class, Class, int)}, behind a single proxy
+     * routing calls across the live replicas. If a replica fails to fork,
+     * the others are exited.
+     */
+    public <T> ReplicatedController<T> forkReplicated(String processName, Class<T> serviceInterface, Class<?> serviceClass, int count, LoadBalancing loadBalancing) throws IOException {
+        List<ListenableFuture<JvmController<T>>> forks = new ArrayList<ListenableFuture<JvmController<T>>>(count);
+        for (int i = 0; i < count; i++) {
+            forks.add(forkAsync(processName + "-" + i, serviceInterface, serviceClass));
+        }
+        List<JvmController<T>> replicas = new ArrayList<JvmController<T>>(count);
+        Throwable failure = null;
+        for (ListenableFuture<JvmController<T>> fork : forks) {
+            try {
+                replicas.add(fork.get());
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+                break;
+            }
+        }
+        if (failure != null) {
+            for (JvmController<T> replica : replicas) {
+                replica.exit();
+            }
+            throw new IOException("Could not fork the replicas of " + processName, failure);
+        }
+        return new ReplicatedControllerImpl<T>(processName, serviceInterface, replicas, loadBalancing);
+    }
+
+    /**
+     * Hands the services to an idle pooled JVM if one is available.
+     *
+     * @return the pooled JVM controller or null if the pool is empty
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> JvmControllerClientImpl<T> claimPooled(String processName, ServiceBindings bindings) {
+        JvmControllerClientImpl<?> pooled;
+        while ((pooled = pool.poll()) != null) {
+            if (!pooled.isAlive()) {
+                log.warn("Discarding dead pooled JVM {}", pooled);
+                continue;
+            }
+            try {
+                log.info("Handing process {} to pooled JVM {}", processName, pooled.getUUID());
+                pooled.host(processName, bindings);
+                return (JvmControllerClientImpl<T>) pooled;
+            } catch (Exception e) {
+                log.warn("Failed to hand process " + processName + " to pooled JVM " + pooled + ", discarding it", e);
+                pooled.kill();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Boots pooled JVMs in the background until the pool is back to its configured size.
+     */
+    protected void refillPool() {
+        if (forkMode == ForkMode.ISOLATE) {
+            return;
+        }
+        while (!shutdown && pool.size() + poolBooting.get() < poolSize) {
+            poolBooting.incrementAndGet();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        JvmControllerClientImpl<Object> pooled = launch("pooled-" + poolCounter.incrementAndGet(), forkOptions);
+                        pool.add(pooled);
+                        if (shutdown) {
+                            pool.remove(pooled);
+                            pooled.exit();
+                        }
+                    } catch (Exception e) {
+                        if (shutdown) {
+                            log.debug("Failed to boot pooled JVM during shutdown", e);
+                        } else {
+                            log.warn("Failed to boot pooled JVM", e);
+                        }
+                    } finally {
+                        poolBooting.decrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts a new JVM running a {@link JvmBootstrapper} and connects to its controller.
+     *
+     * @param options the JVM tuning of the forked JVM
+     * @param serviceClassNames the service interface and class names, or nothing to boot a pooled JVM
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> JvmControllerClientImpl<T> launch(final String processName, ForkOptions options, String... serviceClassNames) throws IOException, FileNotFoundException {
 
         String javaHome = System.getProperty("java.home");
         File javaHomeFile = new File(javaHome);
@@ -208,73 +1089,149 @@ public class JvmManager {
         List<String> args = new ArrayList<String>();
         addAll(args, javaExe);
 
-        String classpath = classworldsJar.getAbsolutePath();
-        addAll(args, "-cp", classpath);
+        switch (launchMode) {
+        case CLASSWORLDS:
+            addAll(args, "-cp", classworldsJar.getAbsolutePath());
+            break;
+        case PATHING_JAR:
+            addAll(args, "-cp", launchClasspath.pathingJar().getAbsolutePath());
+            break;
+        case ARGFILE:
+            addAll(args, "@" + launchClasspath.argFile().getAbsolutePath());
+            break;
+        }
 
 //        addSystemProperties(args);
 
-        JvmControllerClientImpl<T> controller = new JvmControllerClientImpl<T>();
+        final JvmControllerClientImpl<T> controller = new JvmControllerClientImpl<T>();
 
-        Set<String> vmArgs = new HashSet<String>();
+        List<String> inheritedArgs = new ArrayList<String>();
         RuntimeMXBean RuntimemxBean = ManagementFactory.getRuntimeMXBean();
-        vmArgs.addAll(filter(RuntimemxBean.getInputArguments(), isVmArgumentP()));
-        log.debug("VM Args : " + Joiner.on(" ").join(vmArgs));
-        for (Iterator i = vmArgs.iterator(); i.hasNext() && controller.getDebugPort() == null;) {
-            String vmArg = (String) i.next();
-            if (vmArg.startsWith("-Xrunjdwp:transport=")) {
-                int debugPort = AvailablePortFinder.getNextAvailable(8000);
-                controller.setDebugPort(debugPort);
+        inheritedArgs.addAll(filter(RuntimemxBean.getInputArguments(), isVmArgumentP()));
+        log.debug("VM Args : " + Joiner.on(" ").join(inheritedArgs));
+        boolean debug = false;
+        for (Iterator<String> i = inheritedArgs.iterator(); i.hasNext();) {
+            String vmArg = i.next();
+            if (vmArg.startsWith("-Xrunjdwp:transport=") || vmArg.startsWith("-agentlib:jdwp=")) {
+                debug = true;
                 i.remove();
-            }
-            if(vmArg.startsWith("-agentlib:jdwp=")) {
-                int debugPort = AvailablePortFinder.getNextAvailable(8000);
-                controller.setDebugPort(debugPort);
+            } else if (classDataSharingArchive != null && ClassDataSharing.isSharingArgument(vmArg)) {
                 i.remove();
             }
         }
-        if (controller.getDebugPort() != null) {
-            addAll(vmArgs, "-Xdebug", "-Xnoagent", "-Djava.compiler=NONE", "-Xrunjdwp:transport=dt_socket,server=y,suspend=n,address=" + controller.getDebugPort());
+        List<String> vmArgs = options.vmArguments(inheritedArgs);
+        if (debug) {
+            // Without address the agent listens on a port assigned by the system and prints it.
+            // The JIT stays on, debuggers do not need it off and children would crawl.
+            addAll(vmArgs, "-Xdebug", "-Xnoagent", "-Xrunjdwp:transport=dt_socket,server=y,suspend=n");
+        }
+        final String uuid = UUID.randomUUID().toString();
+        if (classDataSharingArchive != null) {
+            vmArgs.addAll(classDataSharingArchive.vmArguments(uuid));
         }
 
+        vmArgs.add("-D" + JvmBootstrapper.HEARTBEAT_INTERVAL_PROPERTY + "=" + heartbeatInterval);
+        vmArgs.add("-D" + JvmBootstrapper.EVENT_DELAY_PROPERTY + "=" + eventDelay);
+        vmArgs.add("-D" + JvmBootstrapper.STREAM_LEASE_PROPERTY + "=" + streamLease);
+
         addAll(args, vmArgs);
 
-        addAll(args, "-Dclassworlds.conf=" + classworldsConf.getAbsolutePath());
-        addAll(args, Launcher.class.getName());
+        if (launchMode == LaunchMode.CLASSWORLDS) {
+            File classworldsConf = classworldsConfiguration(JvmBootstrapper.class.getName(), systemClasspath);
+            addAll(args, "-Dclassworlds.conf=" + classworldsConf.getAbsolutePath());
+            addAll(args, Launcher.class.getName());
+        } else {
+            addAll(args, JvmBootstrapper.class.getName());
+        }
 
-        String uuid = UUID.randomUUID().toString();
-        addAll(args, "" + rmiRegistryPort, serviceInterface.getName(), serviceClass.getName(), processName, uuid);
+        addAll(args, transport.getClass().getName(), codec.getClass().getName(), transport.getAddress(), processName, uuid);
+        addAll(args, serviceClassNames);
 
         String[] targetArgs = args.toArray(new String[] {});
 
         log.info("Forking process {} into JVM {}", processName, uuid);
-        Process process = new ProcessBuilder(targetArgs).redirectErrorStream(true).start();
-
-        print(process, processName);
-
+        ListenableFuture<String> readyFuture = ready.expect(uuid);
+        eventReceiver.expect(uuid);
+        long spawnStart = currentTimeMillis();
+        final Process process;
         try {
-            int exitValue = process.exitValue();
-            log.debug("Process exited with code " + exitValue);
-        } catch (IllegalThreadStateException e) {
-            log.debug("Process still running");
+            process = new ProcessBuilder(targetArgs).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            ready.abort(uuid, e);
+            eventReceiver.forget(uuid);
+            if (classDataSharingArchive != null) {
+                classDataSharingArchive.exited(uuid);
+            }
+            throw e;
         }
+        long bootStart = currentTimeMillis();
 
         controller.setProcess(process);
+        controller.setDebug(debug);
+        controller.setOutput(outputPump.register(process, processName, outputBufferLines, new Runnable() {
+            @Override
+            public void run() {
+                ready.abort(uuid, new IllegalStateException("Process " + processName + " terminated"));
+                // Also covers JVMs which failed to launch or were never handed a service
+                eventReceiver.forget(uuid);
+                if (classDataSharingArchive != null) {
+                    classDataSharingArchive.exited(uuid);
+                }
+                controller.exited(process.exitValue());
+                pool.remove(controller);
+                controllers.exited(controller, controller.getExitCode());
+            }
+        }));
 
-        String serviceName = serviceName(serviceInterface, uuid);
-        T serviceProxy = importService(serviceInterface, rmiRegistryPort, serviceName, 10, SECONDS);
+        String address;
+        try {
+            address = readyFuture.get(10, SECONDS);
+            // The agent reports its port before main runs but the pump may not have read it yet
+            long deadline = currentTimeMillis() + 1000;
+            while (debug && controller.getDebugPort() == null && currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Process " + processName + " exited before being ready", e.getCause());
+        } catch (TimeoutException e) {
+            ready.abort(uuid, e);
+            process.destroy();
+            throw new IOException("Process " + processName + " was not ready after 10 seconds", e);
+        } catch (InterruptedException e) {
+            ready.abort(uuid, e);
+            process.destroy();
+            throw new IOException("Interrupted while waiting for process " + processName, e);
+        }
 
+        long connectStart = currentTimeMillis();
         String controllerName = controllerName(uuid);
-        JvmController<T> controllerProxy = importService(JvmController.class, rmiRegistryPort, controllerName, 10, TimeUnit.SECONDS);
+        RemoteJvmController<T> controllerProxy;
+        try {
+            controllerProxy = transport.lookup(RemoteJvmController.class, address, controllerName, 10, SECONDS);
+        } catch (RuntimeException e) {
+            process.destroy();
+            throw e;
+        }
+        controller.setLaunchTimes(bootStart - spawnStart, connectStart - bootStart, currentTimeMillis() - connectStart);
 
-        controller.setService(serviceProxy);
+        controller.setAddress(address);
+        controller.setExecutor(executor);
         controller.setDelegate(controllerProxy);
         controller.setProcessName(processName);
         controller.setUUID(uuid);
+        failureDetector.track(controller);
 
-        controllers.add(controller);
         return controller;
     }
 
+    /**
+     * @return the number of idle pooled JVMs ready to be handed a service
+     */
+    @Override
+    public int getIdleCount() {
+        return pool.size();
+    }
+
     public static Predicate<String> isVmArgumentP() {
         return new Predicate<String>() {
             @Override
@@ -293,37 +1250,7 @@ public class JvmManager {
         }
     }
 
-    protected void print(Process process, String processName) {
-        print(process.getInputStream(), processName, "IN");
-        print(process.getErrorStream(), processName, "ER");
-    }
-
-    private void print(final InputStream is, final String processName, String type) {
-        final String threadName = processName + "-" + type;
-        Thread thread = new Thread(threadName) {
-            @Override
-            public void run() {
-                log.debug("Starting input reader thread " + threadName);
-                InputStreamReader isr = new InputStreamReader(is);
-                BufferedReader br = new BufferedReader(isr);
-
-                String line;
-                try {
-                    while ((line = br.readLine()) != null) {
-                        System.out.println("[" + threadName + "] " + line);
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                log.debug("No more input for " + threadName);
-            };
-        };
-        thread.setDaemon(true);
-        thread.start();
-    }
-
     protected Iterable<File> getSystemClasspath() {
-        String pathSeparator = System.getProperty("path.separator", ":");
         Iterable<File> classpathList = transform(newArrayList(System.getProperty("java.class.path", "").split(pathSeparator)), toFileF());
         return classpathList;
     }
@@ -337,6 +1264,34 @@ public class JvmManager {
         };
     }
 
+    /**
+     * Returns the classworlds configuration for the given main class and
+     * classpath, writing it to the work directory the first time it is needed.
+     * Configurations are keyed by a hash of their inputs so identical forks
+     * share the same file.
+     */
+    protected File classworldsConfiguration(String name, Iterable<File> coreLibs) throws IOException {
+        String key = Hashing.sha1().hashString(name + pathSeparator + Joiner.on(pathSeparator).join(coreLibs), UTF_8).toString();
+        File conf = classworldsConfigurations.get(key);
+        if (conf == null) {
+            synchronized (classworldsConfigurations) {
+                conf = classworldsConfigurations.get(key);
+                if (conf == null) {
+                    conf = new File(workDirectory, "classworlds-" + key + ".conf");
+                    OutputStream out = new FileOutputStream(conf);
+                    try {
+                        writeClassworldsConfiguration(out, name, coreLibs);
+                    } finally {
+                        out.close();
+                    }
+                    log.debug("Wrote classworlds configuration {}", conf);
+                    classworldsConfigurations.put(key, conf);
+                }
+            }
+        }
+        return conf;
+    }
+
     protected void writeClassworldsConfiguration(OutputStream outputStream, String name, Iterable<File> coreLibs) throws IOException {
         PrintStream print = new PrintStream(outputStream);
         print.println("main is " + name + " from app");
@@ -345,24 +1300,137 @@ public class JvmManager {
             String path = file.toURI().toURL().toExternalForm();
             print.println("\tload " + path);
         }
+        print.flush();
     }
 
-    boolean shutdown = false;
-    private int lbPort;
-    public synchronized void shutdown() {
+    volatile boolean shutdown = false;
+
+    /**
+     * Asks all the forked JVMs to exit, kills the ones still running after
+     * the {@link #setShutdownTimeout(long) shutdown timeout} and releases the
+     * resources of this manager.
+     */
+    public void shutdown() {
+        shutdownAndReport();
+    }
+
+    /**
+     * Same as {@link #shutdown()}.
+     *
+     * @return the JVMs which had to be killed, empty if already shut down
+     */
+    public synchronized List<JvmController<?>> shutdownAndReport() {
         if(shutdown) {
-            return;
+            return new ArrayList<JvmController<?>>();
+        }
+        shutdown = true;
+        if (failureDetector != null) {
+            failureDetector.stop();
+        }
+        List<JvmController<?>> all = newArrayList(controllers.all());
+        pool.drainTo(all);
+        List<JvmController<?>> killed = exitAll(newArrayList(filter(all, notNull())));
+        destroy(pingDisposer, "ping");
+        destroy(readyDisposer, "ready");
+        destroy(eventReceiverDisposer, "event receiver");
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (outputPump != null) {
+            outputPump.stop();
+        }
+        transport.stop();
+        unregisterMBean();
+        deleteWorkDirectory();
+        removeShutdownHook();
+        return killed;
+    }
+
+    /**
+     * Sends exit to all the JVMs at once so that a hung JVM does not delay
+     * the others, then waits for all of them against a single deadline.
+     *
+     * @return the JVMs still running at the deadline, which were killed
+     */
+    protected List<JvmController<?>> exitAll(List<JvmController<?>> all) {
+        long deadline = currentTimeMillis() + shutdownTimeout;
+        for (final JvmController<?> ctrl : all) {
+            Runnable exit = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ctrl.exit();
+                    } catch (Exception e) {
+                        log.warn("Failed to shutdown " + ctrl, e);
+                    }
+                }
+            };
+            if (executor != null) {
+                executor.execute(exit);
+            } else {
+                exit.run();
+            }
         }
-        for (JvmController<?> ctrl : filter(controllers, notNull())) {
+        List<JvmController<?>> running = awaitExit(all, deadline);
+        if (!running.isEmpty()) {
+            List<String> names = new ArrayList<String>();
+            for (JvmController<?> ctrl : running) {
+                names.add(ctrl.getProcessName());
+                ctrl.kill();
+            }
+            log.warn("Killed {} JVM(s) still running {} ms after exit: {}", running.size(), shutdownTimeout, names);
+            // Let the killed processes go before the transport and work directory are released
+            awaitExit(running, currentTimeMillis() + 1000);
+        }
+        return running;
+    }
+
+    private static List<JvmController<?>> awaitExit(List<JvmController<?>> controllers, long deadline) {
+        List<JvmController<?>> running = newArrayList(controllers);
+        try {
+            while (true) {
+                for (Iterator<JvmController<?>> it = running.iterator(); it.hasNext();) {
+                    if (!it.next().isAlive()) {
+                        it.remove();
+                    }
+                }
+                if (running.isEmpty() || currentTimeMillis() >= deadline) {
+                    break;
+                }
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return running;
+    }
+
+    /**
+     * Lets a manager shut down explicitly be garbage collected.
+     */
+    protected void removeShutdownHook() {
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
             try {
-                ctrl.exit();
-            } catch (Exception e) {
-                log.warn("Failed to shutdown " + ctrl, e);
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                ; // the JVM is already shutting down
             }
         }
-        destroy(pingDisposer, "ping");
-        destroy(rmiRegistryDisposer, "RMI Registry");
-        shutdown = true;
+    }
+
+    protected void deleteWorkDirectory() {
+        if (workDirectory != null) {
+            File[] files = workDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        log.debug("Could not delete {}", file);
+                    }
+                }
+            }
+            workDirectory.delete();
+            classworldsConfigurations.clear();
+        }
     }
 
     protected void destroy(DisposableBean disposableBean, String name) {
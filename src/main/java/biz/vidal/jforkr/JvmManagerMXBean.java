@@ -0,0 +1,38 @@
+package biz.vidal.jforkr;
+
+import java.util.List;
+
+/**
+ * Management interface of a {@link JvmManager}, registered in the platform
+ * MBean server as <code>biz.vidal.jforkr:type=JvmManager,name=&lt;n&gt;</code>.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface JvmManagerMXBean {
+
+    public int getLiveJvmCount();
+
+    public int getIdleCount();
+
+    public long getForkCount();
+
+    /**
+     * @return the timings of the most recent forks, oldest first
+     */
+    public List<ForkTiming> getRecentForks();
+
+    /**
+     * @return the latency of each fork phase across forks
+     */
+    public List<LatencyStats> getForkPhaseStats();
+
+    /**
+     * @return the latency of each service method called through the
+     *         controllers, by process name and method name
+     */
+    public List<LatencyStats> getMethodStats();
+
+    public void resetStats();
+
+}
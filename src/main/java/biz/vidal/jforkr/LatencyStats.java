@@ -0,0 +1,76 @@
+package biz.vidal.jforkr;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the latency distribution of a fork phase or a service method.
+ * Percentiles are estimated from power of two buckets so they are accurate
+ * within a factor of two.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class LatencyStats {
+
+    private final String name;
+    private final long count;
+    private final long errorCount;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    @ConstructorProperties({ "name", "count", "errorCount", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "maxMicros" })
+    public LatencyStats(String name, long count, long errorCount, long meanMicros, long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+        this.name = name;
+        this.count = count;
+        this.errorCount = errorCount;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return the phase name or processName#methodName
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP90Micros() {
+        return p90Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return name + " count=" + count + " errors=" + errorCount + " mean=" + meanMicros + "us p50=" + p50Micros + "us p90=" + p90Micros + "us p99=" + p99Micros + "us max=" + maxMicros + "us";
+    }
+
+}
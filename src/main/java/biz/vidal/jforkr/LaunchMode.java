@@ -0,0 +1,27 @@
+package biz.vidal.jforkr;
+
+/**
+ * How forked JVMs receive their classpath without hitting command line
+ * length limits.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public enum LaunchMode {
+    /**
+     * Through a classworlds configuration, the forked JVM starts the
+     * classworlds launcher which loads the classpath in its own realm.
+     */
+    CLASSWORLDS,
+    /**
+     * Through the Class-Path of the manifest of an otherwise empty jar. The
+     * classpath is loaded by the application classloader.
+     */
+    PATHING_JAR,
+    /**
+     * Through a java @argfile, requires a Java 9 or later runtime, falls back
+     * to {@link #PATHING_JAR} otherwise. The classpath is loaded by the
+     * application classloader.
+     */
+    ARGFILE
+}
@@ -0,0 +1,20 @@
+package biz.vidal.jforkr;
+
+/**
+ * How a replicated service proxy picks the replica of each call, see
+ * {@link JvmManager#forkReplicated(String, Class, Class, int, LoadBalancing)}.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public enum LoadBalancing {
+    /**
+     * Each live replica in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * The live replica with the fewest calls in flight, ties going to the
+     * next one in turn.
+     */
+    LEAST_OUTSTANDING
+}
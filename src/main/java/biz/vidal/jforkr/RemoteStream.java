@@ -0,0 +1,22 @@
+package biz.vidal.jforkr;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Result of a forked service method pulled lazily, in chunks, as it is
+ * iterated. Service methods returning an {@link Iterator}, a
+ * <code>java.util.stream.Stream</code> or a RemoteStream are streamed this
+ * way instead of being sent in a single response.
+ * <p>
+ * A stream that is not iterated to its end must be closed, otherwise the
+ * forked JVM keeps its source open. Closing releases the source, which is
+ * closed in turn if it is Closeable.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ * @param <E> the element type
+ */
+public interface RemoteStream<E> extends Iterator<E>, Closeable {
+
+}
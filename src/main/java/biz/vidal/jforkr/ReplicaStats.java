@@ -0,0 +1,59 @@
+package biz.vidal.jforkr;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the calls a replicated service proxy routed to one replica.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ReplicaStats {
+
+    private final String processName;
+    private final boolean alive;
+    private final long callCount;
+    private final long errorCount;
+    private final int outstanding;
+
+    @ConstructorProperties({ "processName", "alive", "callCount", "errorCount", "outstanding" })
+    public ReplicaStats(String processName, boolean alive, long callCount, long errorCount, int outstanding) {
+        this.processName = processName;
+        this.alive = alive;
+        this.callCount = callCount;
+        this.errorCount = errorCount;
+        this.outstanding = outstanding;
+    }
+
+    public String getProcessName() {
+        return processName;
+    }
+
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * @return the number of calls routed to the replica, failed ones included
+     */
+    public long getCallCount() {
+        return callCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return the number of calls in flight
+     */
+    public int getOutstanding() {
+        return outstanding;
+    }
+
+    @Override
+    public String toString() {
+        return processName + (alive ? "" : " dead") + " calls=" + callCount + " errors=" + errorCount + " outstanding=" + outstanding;
+    }
+
+}
@@ -0,0 +1,37 @@
+package biz.vidal.jforkr;
+
+import java.util.List;
+
+/**
+ * Controls N forked replicas of a service behind a single load balancing
+ * proxy, see {@link JvmManager#forkReplicated(String, Class, Class, int, LoadBalancing)}.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ * @param <T>
+ */
+public interface ReplicatedController<T> {
+
+    /**
+     * @return a proxy routing each call to a live replica. Calls whose
+     *         request could not be sent to their replica are retried on
+     *         another one, calls which may have run are not.
+     */
+    public T getService();
+
+    /**
+     * @return the controllers of the replicas, in process name order
+     */
+    public List<JvmController<T>> getReplicas();
+
+    /**
+     * @return the calls routed to each replica, in process name order
+     */
+    public List<ReplicaStats> getReplicaStats();
+
+    /**
+     * Exits all the replicas.
+     */
+    public void exit();
+
+}
@@ -0,0 +1,100 @@
+package biz.vidal.jforkr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Services to host together in a single forked JVM, see
+ * {@link JvmManager#fork(String, ServiceBindings)}. The first bound service is
+ * the main service of the JVM, the one returned by
+ * {@link JvmController#getService()}. Listeners registered with the bindings
+ * are called back by the services through {@link EventSink}.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ServiceBindings {
+
+    private final Map<Class<?>, Class<?>> bindings = new LinkedHashMap<Class<?>, Class<?>>();
+    private final Map<Class<?>, Object> listeners = new LinkedHashMap<Class<?>, Object>();
+
+    /**
+     * Binds a service interface to the class instantiated to implement it.
+     *
+     * @return this
+     */
+    public <S> ServiceBindings bind(Class<S> serviceInterface, Class<? extends S> serviceClass) {
+        return put(serviceInterface, serviceClass);
+    }
+
+    ServiceBindings put(Class<?> serviceInterface, Class<?> serviceClass) {
+        if (!serviceInterface.isInterface()) {
+            throw new IllegalArgumentException(serviceInterface.getName() + " is not an interface");
+        }
+        if (bindings.containsKey(serviceInterface)) {
+            throw new IllegalArgumentException(serviceInterface.getName() + " is already bound to " + bindings.get(serviceInterface).getName());
+        }
+        bindings.put(serviceInterface, serviceClass);
+        return this;
+    }
+
+    /**
+     * Registers a listener the services call back through the proxy returned
+     * by {@link EventSink#listener(Class)} in the forked JVM.
+     *
+     * @return this
+     */
+    public <L> ServiceBindings listen(Class<L> listenerInterface, L listener) {
+        if (!listenerInterface.isInterface()) {
+            throw new IllegalArgumentException(listenerInterface.getName() + " is not an interface");
+        }
+        listeners.put(listenerInterface, listener);
+        return this;
+    }
+
+    /**
+     * @return the listeners by listener interface
+     */
+    public Map<Class<?>, Object> getListeners() {
+        return Collections.unmodifiableMap(listeners);
+    }
+
+    /**
+     * @return the service interfaces and their implementation classes, in binding order
+     */
+    public Map<Class<?>, Class<?>> asMap() {
+        return Collections.unmodifiableMap(bindings);
+    }
+
+    /**
+     * @return the interface of the first bound service
+     */
+    public Class<?> getMainInterface() {
+        if (bindings.isEmpty()) {
+            throw new IllegalStateException("No service bound");
+        }
+        return bindings.keySet().iterator().next();
+    }
+
+    /**
+     * @return the service interface and class names, in binding order
+     */
+    public List<String> classNames() {
+        List<String> classNames = new ArrayList<String>(bindings.size() * 2);
+        for (Entry<Class<?>, Class<?>> binding : bindings.entrySet()) {
+            classNames.add(binding.getKey().getName());
+            classNames.add(binding.getValue().getName());
+        }
+        return classNames;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceBindings" + classNames();
+    }
+
+}
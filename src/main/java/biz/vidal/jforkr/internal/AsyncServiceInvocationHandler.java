@@ -0,0 +1,83 @@
+package biz.vidal.jforkr.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import biz.vidal.jforkr.transport.AsyncInvoker;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Backs the asynchronous mirror of a service interface: every method is
+ * mapped to the service method with the same name and parameters, and
+ * returns a future of its result.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class AsyncServiceInvocationHandler implements InvocationHandler {
+
+    private final Object service;
+    private final ListeningExecutorService executor;
+    private final Map<Method, Method> serviceMethods = new HashMap<Method, Method>();
+
+    /**
+     * @param executor runs the calls when the service proxy cannot send them asynchronously
+     */
+    public AsyncServiceInvocationHandler(Class<?> serviceInterface, Object service, Class<?> asyncInterface, ListeningExecutorService executor) {
+        this.service = service;
+        this.executor = executor;
+        for (Method method : asyncInterface.getMethods()) {
+            if (!method.getReturnType().isAssignableFrom(ListenableFuture.class)) {
+                throw new IllegalArgumentException(method + " must return a ListenableFuture");
+            }
+            try {
+                serviceMethods.put(method, serviceInterface.getMethod(method.getName(), method.getParameterTypes()));
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(method + " has no counterpart in " + serviceInterface.getName());
+            }
+        }
+    }
+
+    public static <A> A createProxy(Class<?> serviceInterface, Object service, Class<A> asyncInterface, ListeningExecutorService executor) {
+        return asyncInterface.cast(Proxy.newProxyInstance(asyncInterface.getClassLoader(), new Class<?>[] { asyncInterface }, new AsyncServiceInvocationHandler(serviceInterface, service, asyncInterface, executor)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return "Async " + service;
+        }
+        final Method serviceMethod = serviceMethods.get(method);
+        if (service instanceof AsyncInvoker) {
+            return ((AsyncInvoker) service).invokeAsync(serviceMethod, args);
+        }
+        final Object[] arguments = args;
+        return executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    return serviceMethod.invoke(service, arguments);
+                } catch (InvocationTargetException e) {
+                    Throwable target = e.getTargetException();
+                    if (target instanceof Error) {
+                        throw (Error) target;
+                    }
+                    throw (Exception) target;
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,40 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Results of a batch run in a forked JVM, up to the first failure.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class BatchResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Object> results;
+    private Throwable failure;
+
+    public BatchResult(int size) {
+        this.results = new ArrayList<Object>(size);
+    }
+
+    public void add(Object result) {
+        results.add(result);
+    }
+
+    public List<Object> getResults() {
+        return results;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public void setFailure(Throwable failure) {
+        this.failure = failure;
+    }
+
+}
@@ -0,0 +1,112 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads classes from its own classpath before asking its parent, except the
+ * Java platform classes and the given shared classes, so that an isolated
+ * service gets its own copy of every library.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ChildFirstClassLoader extends URLClassLoader {
+
+    private final Set<String> sharedClassNames;
+
+    public ChildFirstClassLoader(URL[] urls, ClassLoader parent) {
+        this(urls, parent, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param sharedClassNames classes always loaded by the parent, typically
+     *        the types a service is called through
+     */
+    public ChildFirstClassLoader(URL[] urls, ClassLoader parent, Set<String> sharedClassNames) {
+        super(urls, parent);
+        this.sharedClassNames = sharedClassNames;
+    }
+
+    /**
+     * @return the names of the service interface and of the non platform
+     *         types its methods take, return or throw
+     */
+    public static Set<String> contractClassNames(Class<?> serviceInterface) {
+        Set<String> names = new HashSet<String>();
+        addContractClass(names, serviceInterface);
+        for (Method method : serviceInterface.getMethods()) {
+            addContractClass(names, method.getReturnType());
+            for (Class<?> type : method.getParameterTypes()) {
+                addContractClass(names, type);
+            }
+            for (Class<?> type : method.getExceptionTypes()) {
+                addContractClass(names, type);
+            }
+        }
+        return names;
+    }
+
+    private static void addContractClass(Set<String> names, Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (!type.isPrimitive() && !type.getName().startsWith("java.")) {
+            names.add(type.getName());
+        }
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (name.startsWith("java.") || sharedClassNames.contains(name)) {
+            return super.loadClass(name, resolve);
+        }
+        Class<?> c = findLoadedClass(name);
+        if (c == null) {
+            try {
+                c = findClass(name);
+            } catch (ClassNotFoundException e) {
+                c = getParent().loadClass(name);
+            }
+        }
+        if (resolve) {
+            resolveClass(c);
+        }
+        return c;
+    }
+
+    @Override
+    public URL getResource(String name) {
+        URL url = findResource(name);
+        return url != null ? url : super.getResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+        // The parent usually has the same classpath, keep each resource once
+        Map<String, URL> urls = new LinkedHashMap<String, URL>();
+        List<Enumeration<URL>> enumerations = new ArrayList<Enumeration<URL>>(2);
+        enumerations.add(findResources(name));
+        enumerations.add(getParent().getResources(name));
+        for (Enumeration<URL> e : enumerations) {
+            while (e.hasMoreElements()) {
+                URL url = e.nextElement();
+                if (!urls.containsKey(url.toExternalForm())) {
+                    urls.put(url.toExternalForm(), url);
+                }
+            }
+        }
+        return Collections.enumeration(urls.values());
+    }
+
+}
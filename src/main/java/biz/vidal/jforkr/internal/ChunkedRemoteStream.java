@@ -0,0 +1,76 @@
+package biz.vidal.jforkr.internal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import biz.vidal.jforkr.RemoteStream;
+
+/**
+ * Iterates over a result streamed by a forked JVM, pulling the next chunk
+ * only once the current one is consumed. At most one chunk is held on each
+ * side whatever the size of the result.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ * @param <E>
+ */
+public class ChunkedRemoteStream<E> implements RemoteStream<E> {
+
+    private final RemoteJvmController<?> controller;
+    private final long streamId;
+    private final int chunkSize;
+    private List<Object> elements;
+    private int index;
+    private boolean last;
+
+    public ChunkedRemoteStream(RemoteJvmController<?> controller, StreamChunk first, int chunkSize) {
+        this.controller = controller;
+        this.streamId = first.getStreamId();
+        this.chunkSize = chunkSize;
+        this.elements = first.getElements();
+        this.last = first.isLast();
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        while (index == elements.size() && !last) {
+            StreamChunk chunk = controller.nextChunk(streamId, chunkSize);
+            elements = chunk.getElements();
+            index = 0;
+            last = chunk.isLast();
+        }
+        return index < elements.size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        E element = (E) elements.get(index);
+        elements.set(index++, null);
+        return element;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Streamed results are read only");
+    }
+
+    /**
+     * Releases the source in the forked JVM if the stream was not iterated to
+     * its end.
+     */
+    @Override
+    public synchronized void close() {
+        if (!last) {
+            last = true;
+            elements = Collections.emptyList();
+            index = 0;
+            controller.closeStream(streamId);
+        }
+    }
+
+}
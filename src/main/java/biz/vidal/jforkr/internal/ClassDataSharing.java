@@ -0,0 +1,146 @@
+package biz.vidal.jforkr.internal;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class Data Sharing archive shared by forked JVMs.
+ * <p>
+ * The first JVM forked without an archive records one when it exits
+ * (-XX:ArchiveClassesAtExit), the following ones map it at startup
+ * (-XX:SharedArchiveFile). Requires a Java 13 or later runtime.
+ * <p>
+ * The recording JVM writes to a file of its own which is renamed to the
+ * archive once it exited, so a partial archive is never mapped and
+ * concurrent recorders do not overwrite each other. When the recording JVM
+ * exits without writing an archive, e.g. because it was killed, the next
+ * fork records it again.
+ * <p>
+ * The archive file name is derived from everything that makes an archive
+ * unusable when it changes (java runtime, classpath, main class) so a stale
+ * archive is never reused, a new one is recorded instead.
+ * <p>
+ * As archives are mapped into every forked JVM, the directory must belong to
+ * the current user and is made private to it, and an archive belonging to
+ * another user is recorded again rather than used.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ClassDataSharing {
+
+    /**
+     * First Java version supporting dynamic archives.
+     */
+    public static final int MIN_JAVA_VERSION = 13;
+
+    private static Logger log = LoggerFactory.getLogger(ClassDataSharing.class);
+
+    private final File archive;
+    private final AtomicBoolean recording = new AtomicBoolean(false);
+    private volatile String recorderUuid;
+
+    /**
+     * @param directory where archives are kept across runs
+     * @param key hash of the inputs the archive depends on
+     * @throws IOException if the directory belongs to another user or could
+     *         not be made private
+     */
+    public ClassDataSharing(File directory, String key) throws IOException {
+        PrivateFiles.createDirectory(directory);
+        this.archive = new File(directory, "jforkr-" + key + ".jsa");
+    }
+
+    public static boolean isSupported() {
+        return javaSpecificationVersion() >= MIN_JAVA_VERSION;
+    }
+
+    /**
+     * @return the major Java version of the running JVM, 8 for 1.8
+     */
+    public static int javaSpecificationVersion() {
+        String version = System.getProperty("java.specification.version", "0");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param uuid the UUID of the forked JVM
+     * @return the arguments to start a forked JVM with, either using the
+     *         archive or recording it
+     */
+    public List<String> vmArguments(String uuid) {
+        if (isPublished()) {
+            return singletonList("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+        if (recording.compareAndSet(false, true)) {
+            recorderUuid = uuid;
+            log.info("Recording class data sharing archive {}", archive);
+            return singletonList("-XX:ArchiveClassesAtExit=" + recordingFile(uuid).getAbsolutePath());
+        }
+        return emptyList();
+    }
+
+    private File recordingFile(String uuid) {
+        return new File(archive.getParentFile(), archive.getName() + "." + uuid + ".tmp");
+    }
+
+    /**
+     * Publishes the archive recorded by the forked JVM if it was the
+     * recording one, or lets the next fork record it if it wrote none.
+     *
+     * @param uuid the UUID of the forked JVM which exited or failed to start
+     */
+    public void exited(String uuid) {
+        if (!uuid.equals(recorderUuid)) {
+            return;
+        }
+        File recorded = recordingFile(uuid);
+        if (recorded.length() > 0 && (recorded.renameTo(archive) || isPublished())) {
+            log.info("Recorded class data sharing archive {}", archive);
+        } else {
+            log.info("Forked JVM {} exited without recording a class data sharing archive", uuid);
+        }
+        recorded.delete();
+        recorderUuid = null;
+        recording.set(false);
+    }
+
+    /**
+     * @return whether the archive exists and was published by the current user
+     */
+    public boolean isPublished() {
+        return archive.isFile() && PrivateFiles.isOwnedByCurrentUser(archive);
+    }
+
+    public boolean isRecording() {
+        return recording.get() && !isPublished();
+    }
+
+    public File getArchive() {
+        return archive;
+    }
+
+    /**
+     * @return true if the argument is a CDS option inherited from the
+     *         current JVM that would conflict with the managed archive
+     */
+    public static boolean isSharingArgument(String vmArg) {
+        return vmArg.startsWith("-XX:SharedArchiveFile=") || vmArg.startsWith("-XX:ArchiveClassesAtExit=") || vmArg.startsWith("-Xshare:");
+    }
+
+}
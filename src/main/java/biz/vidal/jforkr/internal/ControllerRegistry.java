@@ -0,0 +1,122 @@
+package biz.vidal.jforkr.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.vidal.jforkr.JvmController;
+import biz.vidal.jforkr.JvmExitListener;
+
+/**
+ * Live controllers by JVM UUID and process name.
+ * <p>
+ * Controllers are removed when their JVM exits rather than by scanning for
+ * dead ones, and exit listeners are notified exactly once per controller
+ * whichever of the output pump, failure detector or controller reports the
+ * exit first.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ControllerRegistry {
+
+    private static Logger log = LoggerFactory.getLogger(ControllerRegistry.class);
+
+    private final ConcurrentMap<String, JvmController<?>> byUuid = new ConcurrentHashMap<String, JvmController<?>>();
+    /**
+     * Live controllers sharing each process name in registration order,
+     * guarded by itself.
+     */
+    private final Map<String, Set<JvmController<?>>> byProcessName = new HashMap<String, Set<JvmController<?>>>();
+    private final List<JvmExitListener> listeners;
+
+    /**
+     * @param listeners notified of exits, may be modified while running
+     */
+    public ControllerRegistry(List<JvmExitListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    public void register(JvmController<?> controller) {
+        byUuid.put(controller.getUUID(), controller);
+        synchronized (byProcessName) {
+            Set<JvmController<?>> namesakes = byProcessName.get(controller.getProcessName());
+            if (namesakes == null) {
+                namesakes = new LinkedHashSet<JvmController<?>>();
+                byProcessName.put(controller.getProcessName(), namesakes);
+            }
+            namesakes.add(controller);
+        }
+    }
+
+    /**
+     * Removes a controller and notifies the exit listeners, unless it was
+     * already removed.
+     *
+     * @param exitCode the exit code of the process, null if unknown or an isolate
+     */
+    public void exited(JvmController<?> controller, Integer exitCode) {
+        if (!byUuid.remove(controller.getUUID(), controller)) {
+            return;
+        }
+        synchronized (byProcessName) {
+            Set<JvmController<?>> namesakes = byProcessName.get(controller.getProcessName());
+            if (namesakes != null && namesakes.remove(controller) && namesakes.isEmpty()) {
+                byProcessName.remove(controller.getProcessName());
+            }
+        }
+        log.debug("{} exited with {}", controller, exitCode);
+        for (JvmExitListener listener : listeners) {
+            try {
+                listener.exited(controller, exitCode);
+            } catch (RuntimeException e) {
+                log.warn("Exit listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return the controller of the JVM, null if unknown or exited
+     */
+    public JvmController<?> get(String uuid) {
+        return byUuid.get(uuid);
+    }
+
+    /**
+     * @return the most recently registered live controller with that process name, null if none
+     */
+    public JvmController<?> getByProcessName(String processName) {
+        synchronized (byProcessName) {
+            Set<JvmController<?>> namesakes = byProcessName.get(processName);
+            JvmController<?> latest = null;
+            if (namesakes != null) {
+                // Usually a single one
+                for (JvmController<?> controller : namesakes) {
+                    latest = controller;
+                }
+            }
+            return latest;
+        }
+    }
+
+    /**
+     * @return a live view of the registered controllers
+     */
+    public Collection<JvmController<?>> all() {
+        return Collections.unmodifiableCollection(byUuid.values());
+    }
+
+    public int size() {
+        return byUuid.size();
+    }
+
+}
@@ -0,0 +1,49 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.Serializable;
+
+/**
+ * Call on a listener proxy of a forked JVM, sent to the forking JVM with the
+ * other events of its batch.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class Event implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String listenerInterfaceName;
+    private final String methodName;
+    private final Class<?>[] parameterTypes;
+    private final Object[] arguments;
+
+    public Event(String listenerInterfaceName, String methodName, Class<?>[] parameterTypes, Object[] arguments) {
+        this.listenerInterfaceName = listenerInterfaceName;
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes;
+        this.arguments = arguments;
+    }
+
+    public String getListenerInterfaceName() {
+        return listenerInterfaceName;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public Object[] getArguments() {
+        return arguments;
+    }
+
+    @Override
+    public String toString() {
+        return listenerInterfaceName + "." + methodName;
+    }
+
+}
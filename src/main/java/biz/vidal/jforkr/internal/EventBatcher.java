@@ -0,0 +1,148 @@
+package biz.vidal.jforkr.internal;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.vidal.jforkr.JvmManager.EventReceiver;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Buffers the events of a forked JVM and sends them to the forking JVM in
+ * batches, at most maxDelay milliseconds after the first event of a batch or
+ * as soon as it holds {@link #MAX_BATCH_SIZE} events. Batches are sent one at
+ * a time by a single thread, in order, and never hold more than
+ * {@link #MAX_BATCH_SIZE} events.
+ * <p>
+ * Publishing never blocks the service: while the forking JVM does not keep
+ * up, at most {@link #MAX_PENDING} events wait for the next batch and the
+ * following ones are dropped and counted.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class EventBatcher {
+
+    private static Logger log = LoggerFactory.getLogger(EventBatcher.class);
+
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    public static final int MAX_PENDING = 10 * MAX_BATCH_SIZE;
+
+    private final EventReceiver receiver;
+    private final String uuid;
+    private final long maxDelay;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jforkr-events").build());
+    private List<Event> pending = new ArrayList<Event>();
+    private long dropped = 0;
+    private long droppedSinceSend = 0;
+
+    private final Runnable send = new Runnable() {
+        @Override
+        public void run() {
+            send();
+        }
+    };
+
+    /**
+     * @param receiver the event receiver of the forking JVM
+     * @param uuid the UUID of this JVM
+     * @param maxDelay milliseconds an event may wait for the rest of its batch
+     */
+    public EventBatcher(EventReceiver receiver, String uuid, long maxDelay) {
+        this.receiver = receiver;
+        this.uuid = uuid;
+        this.maxDelay = maxDelay;
+    }
+
+    public void publish(Event event) {
+        synchronized (this) {
+            if (pending.size() >= MAX_PENDING) {
+                dropped++;
+                droppedSinceSend++;
+                return;
+            }
+            pending.add(event);
+            try {
+                if (pending.size() == 1) {
+                    executor.schedule(send, maxDelay, MILLISECONDS);
+                } else if (pending.size() == MAX_BATCH_SIZE) {
+                    executor.execute(send);
+                }
+            } catch (RejectedExecutionException e) {
+                log.debug("Dropping {}, events are closed", event);
+            }
+        }
+    }
+
+    private void send() {
+        List<Event> batch;
+        long droppedEvents;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<Event>();
+            droppedEvents = droppedSinceSend;
+            droppedSinceSend = 0;
+        }
+        if (droppedEvents > 0) {
+            log.warn("Dropped {} events, the forking JVM did not keep up", droppedEvents);
+        }
+        // Events pile up while a batch is being sent
+        for (int from = 0; from < batch.size(); from += MAX_BATCH_SIZE) {
+            List<Event> slice = new ArrayList<Event>(batch.subList(from, Math.min(from + MAX_BATCH_SIZE, batch.size())));
+            try {
+                receiver.receive(uuid, slice);
+            } catch (Exception e) {
+                log.warn("Could not send " + slice.size() + " events to the forking JVM", e);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending events, waiting up to 10 seconds for them to be
+     * received.
+     */
+    public void flush() {
+        try {
+            executor.submit(send).get(10, SECONDS);
+        } catch (RejectedExecutionException e) {
+            ; // closed
+        } catch (ExecutionException e) {
+            log.warn("Could not flush events", e.getCause());
+        } catch (TimeoutException e) {
+            log.warn("Timed out flushing events");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of events dropped because too many were waiting
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Sends the pending events and stops.
+     */
+    public void close() {
+        flush();
+        executor.shutdownNow();
+    }
+
+}
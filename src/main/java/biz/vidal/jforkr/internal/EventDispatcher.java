@@ -0,0 +1,69 @@
+package biz.vidal.jforkr.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls the listeners registered for a forked JVM with the events it sends.
+ * Events received before the listeners are registered, while the JVM boots,
+ * are held until then.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class EventDispatcher {
+
+    private static Logger log = LoggerFactory.getLogger(EventDispatcher.class);
+
+    private final String uuid;
+    private Map<String, Entry<Class<?>, Object>> listeners;
+    private List<Event> pending = new ArrayList<Event>();
+
+    public EventDispatcher(String uuid) {
+        this.uuid = uuid;
+    }
+
+    /**
+     * @param listeners the listeners by listener interface
+     */
+    public synchronized void listen(Map<Class<?>, Object> listeners) {
+        this.listeners = new HashMap<String, Entry<Class<?>, Object>>();
+        for (Entry<Class<?>, Object> listener : listeners.entrySet()) {
+            this.listeners.put(listener.getKey().getName(), listener);
+        }
+        List<Event> held = pending;
+        pending = null;
+        dispatch(held);
+    }
+
+    public synchronized void dispatch(List<Event> events) {
+        if (listeners == null) {
+            pending.addAll(events);
+            return;
+        }
+        for (Event event : events) {
+            Entry<Class<?>, Object> listener = listeners.get(event.getListenerInterfaceName());
+            if (listener == null) {
+                log.debug("Dropping {} from JVM {}, no listener registered", event, uuid);
+                continue;
+            }
+            try {
+                Method method = listener.getKey().getMethod(event.getMethodName(), event.getParameterTypes());
+                method.invoke(listener.getValue(), event.getArguments());
+            } catch (InvocationTargetException e) {
+                log.warn("Listener failed on " + event + " from JVM " + uuid, e.getTargetException());
+            } catch (Exception e) {
+                log.warn("Could not dispatch " + event + " from JVM " + uuid, e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package biz.vidal.jforkr.internal;
+
+import static java.lang.System.currentTimeMillis;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.vidal.jforkr.JvmHealth;
+import biz.vidal.jforkr.JvmHealthListener;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Derives the health of forked JVMs from the time of their last heartbeat.
+ * <p>
+ * A JVM is suspected once it missed two heartbeats, hung once no heartbeat
+ * arrived for the whole lease and dead once its process terminated. Hung JVMs
+ * are optionally killed.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class FailureDetector implements Runnable {
+
+    private static Logger log = LoggerFactory.getLogger(FailureDetector.class);
+
+    private final Map<String, Long> lastHeartbeats;
+    private final long heartbeatInterval;
+    private final long lease;
+    private final boolean killHung;
+    private final List<JvmHealthListener> listeners;
+    private final Map<JvmControllerClientImpl<?>, Long> tracked = new ConcurrentHashMap<JvmControllerClientImpl<?>, Long>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param lastHeartbeats time of the last heartbeat of each JVM by UUID
+     * @param listeners notified of health changes, may be modified while running
+     */
+    public FailureDetector(Map<String, Long> lastHeartbeats, List<JvmHealthListener> listeners, long heartbeatInterval, long lease, boolean killHung) {
+        this.lastHeartbeats = lastHeartbeats;
+        this.listeners = listeners;
+        this.heartbeatInterval = heartbeatInterval;
+        this.lease = lease;
+        this.killHung = killHung;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jforkr-failure-detector").build());
+        long period = Math.max(heartbeatInterval / 2, 10);
+        scheduler.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        tracked.clear();
+    }
+
+    /**
+     * Starts watching a JVM which reported it is ready.
+     */
+    public void track(JvmControllerClientImpl<?> controller) {
+        tracked.put(controller, currentTimeMillis());
+    }
+
+    @Override
+    public void run() {
+        long now = currentTimeMillis();
+        for (Entry<JvmControllerClientImpl<?>, Long> entry : tracked.entrySet()) {
+            JvmControllerClientImpl<?> controller = entry.getKey();
+            try {
+                update(controller, health(controller, entry.getValue(), now));
+            } catch (RuntimeException e) {
+                log.warn("Failed to check " + controller, e);
+            }
+        }
+    }
+
+    private JvmHealth health(JvmControllerClientImpl<?> controller, long trackedSince, long now) {
+        if (!controller.isAlive()) {
+            return JvmHealth.DEAD;
+        }
+        Long lastHeartbeat = lastHeartbeats.get(controller.getUUID());
+        long silence = now - (lastHeartbeat != null ? Math.max(lastHeartbeat, trackedSince) : trackedSince);
+        if (silence > lease) {
+            return JvmHealth.HUNG;
+        }
+        if (silence > 2 * heartbeatInterval) {
+            return JvmHealth.SUSPECTED;
+        }
+        return JvmHealth.ALIVE;
+    }
+
+    private void update(JvmControllerClientImpl<?> controller, JvmHealth health) {
+        JvmHealth previous = controller.getHealth();
+        if (previous == health) {
+            return;
+        }
+        controller.setHealth(health);
+        if (health == JvmHealth.DEAD) {
+            tracked.remove(controller);
+        }
+        log.info("{} is {}", controller, health);
+        for (JvmHealthListener listener : listeners) {
+            try {
+                listener.healthChanged(controller, previous, health);
+            } catch (RuntimeException e) {
+                log.warn("Health listener failed", e);
+            }
+        }
+        if (health == JvmHealth.HUNG && killHung) {
+            log.warn("Killing hung {}", controller);
+            controller.kill();
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.remoting.RemoteAccessException;
+
+import biz.vidal.jforkr.RemoteStream;
+import biz.vidal.jforkr.transport.Codec;
+
+/**
+ * Calls a service living in another classloader of the same JVM.
+ * <p>
+ * The service interface is loaded by both classloaders, so calls are mapped
+ * to the method with the same signature on the other side, and arguments,
+ * results and exceptions are copied with the codec as if they were sent to
+ * another JVM. Streamed results are copied one element at a time as they are
+ * iterated.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class IsolateInvocationHandler implements InvocationHandler {
+
+    private final Object service;
+    private final ClassLoader isolateClassLoader;
+    private final Codec codec;
+    private final ConcurrentMap<Method, Method> serviceMethods = new ConcurrentHashMap<Method, Method>();
+
+    public IsolateInvocationHandler(Object service, Codec codec) {
+        this.service = service;
+        this.isolateClassLoader = service.getClass().getClassLoader();
+        this.codec = codec;
+    }
+
+    public static <T> T createProxy(Class<T> serviceInterface, IsolateInvocationHandler handler) {
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface }, handler));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return "Isolate proxy for " + service;
+        }
+        ClassLoader callerClassLoader = method.getDeclaringClass().getClassLoader();
+        Method serviceMethod = serviceMethod(method);
+        Object[] isolateArgs = args == null ? null : (Object[]) copy(args, isolateClassLoader);
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(isolateClassLoader);
+        try {
+            Object result = serviceMethod.invoke(service, isolateArgs);
+            if (result != null && Streams.isStreamed(method.getReturnType())) {
+                return Streams.adapt(copyingStream(result, callerClassLoader), method.getReturnType());
+            }
+            return copy(result, callerClassLoader);
+        } catch (InvocationTargetException e) {
+            throw unwrap((Throwable) copy(e.getTargetException(), callerClassLoader), method);
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+
+    private RemoteStream<Object> copyingStream(final Object result, final ClassLoader classLoader) throws Exception {
+        final Iterator<?> iterator = Streams.iterator(result);
+        return new RemoteStream<Object>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return copy(iterator.next(), classLoader);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Streamed results are read only");
+            }
+
+            @Override
+            public void close() {
+                Streams.close(result);
+            }
+        };
+    }
+
+    private static Throwable unwrap(Throwable cause, Method method) {
+        if (cause instanceof RuntimeException || cause instanceof Error) {
+            return cause;
+        }
+        for (Class<?> exceptionType : method.getExceptionTypes()) {
+            if (exceptionType.isInstance(cause)) {
+                return cause;
+            }
+        }
+        return new UndeclaredThrowableException(cause);
+    }
+
+    private Method serviceMethod(Method method) throws ClassNotFoundException, NoSuchMethodException {
+        Method serviceMethod = serviceMethods.get(method);
+        if (serviceMethod == null) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            Class<?>[] isolateTypes = new Class<?>[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                isolateTypes[i] = isolateClass(parameterTypes[i]);
+            }
+            serviceMethod = isolateClass(method.getDeclaringClass()).getMethod(method.getName(), isolateTypes);
+            serviceMethods.put(method, serviceMethod);
+        }
+        return serviceMethod;
+    }
+
+    private Class<?> isolateClass(Class<?> type) throws ClassNotFoundException {
+        if (type.isPrimitive()) {
+            return type;
+        }
+        return Class.forName(type.getName(), false, isolateClassLoader);
+    }
+
+    /**
+     * @return a copy of the value whose classes are resolved by the given classloader
+     */
+    private Object copy(Object value, ClassLoader classLoader) {
+        if (value == null || value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Boolean) {
+            // Immutable platform classes are shared by all classloaders
+            return value;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            codec.write(value, new DataOutputStream(bytes));
+            return codec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), classLoader);
+        } catch (IOException e) {
+            throw new RemoteAccessException("Could not copy " + value.getClass().getName() + " across isolates", e);
+        } catch (ClassNotFoundException e) {
+            throw new RemoteAccessException("Could not copy " + value.getClass().getName() + " across isolates", e);
+        }
+    }
+
+}
@@ -1,11 +1,22 @@
 package biz.vidal.jforkr.internal;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.remoting.RemoteAccessException;
 import org.springframework.remoting.RemoteConnectFailureException;
 
+import biz.vidal.jforkr.Batch;
+import biz.vidal.jforkr.BatchFailedException;
 import biz.vidal.jforkr.JvmController;
+import biz.vidal.jforkr.JvmHealth;
+import biz.vidal.jforkr.ServiceBindings;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 /**
  * @author <a href="http://vidal.biz">Cedric Vidal</a>
@@ -14,11 +25,22 @@ import biz.vidal.jforkr.JvmController;
  */
 public class JvmControllerClientImpl<T> implements JvmController<T> {
     private Process process;
+    private ProcessOutput output;
     private T service;
-    private JvmController<T> delegate;
-    private Integer debugPort;
+    private final Map<Class<?>, Object> services = new ConcurrentHashMap<Class<?>, Object>();
+    private T remoteService;
+    private Class<T> serviceInterface;
+    private ListeningExecutorService executor;
+    private RemoteJvmController<T> delegate;
+    private boolean debug;
     private String processName;
     private String uuid;
+    private String address;
+    private volatile JvmHealth health = JvmHealth.ALIVE;
+    private volatile Integer exitCode;
+    private long spawnMillis;
+    private long bootMillis;
+    private long connectMillis;
 
     private static Logger log = LoggerFactory.getLogger(JvmController.class.getName());
 
@@ -27,11 +49,24 @@ public class JvmControllerClientImpl<T> implements JvmController<T> {
         return this.service;
     }
 
+    @Override
+    public <S> S getService(Class<S> serviceInterface) {
+        Object service = services.get(serviceInterface);
+        if (service == null) {
+            throw new IllegalArgumentException(this + " hosts no " + serviceInterface.getName());
+        }
+        return serviceInterface.cast(service);
+    }
+
+    public <S> void setService(Class<S> serviceInterface, S service) {
+        services.put(serviceInterface, service);
+    }
+
     @Override
     public void exit() {
         if (delegate != null) {
             synchronized (delegate) {
-                log.debug("Shutting down " + service.getClass().getName());
+                log.debug("Shutting down " + this);
                 try {
                     delegate.exit();
                 } catch (RemoteConnectFailureException e) {
@@ -40,7 +75,7 @@ public class JvmControllerClientImpl<T> implements JvmController<T> {
                     ; // expected just after the process has been terminated
                     kill();
                 } catch (Exception e) {
-                    log.warn("Failed to shutdown " + service.getClass().getName() + " so killing it", e);
+                    log.warn("Failed to shutdown " + this + " so killing it", e);
                     kill();
                 } finally {
                     delegate = null;
@@ -51,50 +86,181 @@ public class JvmControllerClientImpl<T> implements JvmController<T> {
         }
     }
 
+    @Override
+    public void recycle() throws Exception {
+        runningDelegate().recycle();
+    }
+
+    /**
+     * Hands services to a pooled JVM which was booted without any.
+     */
+    public void host(String processName, ServiceBindings bindings) throws Exception {
+        List<String> classNames = bindings.classNames();
+        runningDelegate().host(processName, classNames.toArray(new String[classNames.size()]));
+        this.processName = processName;
+        if (output != null) {
+            output.setProcessName(processName);
+        }
+    }
+
     @Override
     public void kill() {
-        process.destroy();
+        Processes.destroyForcibly(process);
+    }
+
+    /**
+     * Waits for the forked JVM to terminate.
+     *
+     * @return the exit code of the process
+     */
+    public int waitFor() throws InterruptedException {
+        return process.waitFor();
     }
 
     public void setProcess(Process process) {
         this.process = process;
     }
 
+    public ProcessOutput getOutput() {
+        return output;
+    }
+
+    public void setOutput(ProcessOutput output) {
+        this.output = output;
+    }
+
+    @Override
+    public List<String> recentOutput() {
+        return output != null ? output.recent() : Collections.<String>emptyList();
+    }
+
     public void setService(T service) {
         this.service = service;
     }
 
-    public JvmController<T> getDelegate() {
+    /**
+     * @param remoteService the transport proxy of the service, when the
+     *        service returned to callers wraps it
+     */
+    public void setRemoteService(T remoteService) {
+        this.remoteService = remoteService;
+    }
+
+    public Class<T> getServiceInterface() {
+        return serviceInterface;
+    }
+
+    public void setServiceInterface(Class<T> serviceInterface) {
+        this.serviceInterface = serviceInterface;
+    }
+
+    @Override
+    public <A> A getAsyncService(Class<A> asyncInterface) {
+        return AsyncServiceInvocationHandler.createProxy(serviceInterface, remoteService != null ? remoteService : service, asyncInterface, executor);
+    }
+
+    @Override
+    public List<Object> batch(Batch<T> batch) throws Exception {
+        RecordingInvocationHandler recorder = new RecordingInvocationHandler();
+        batch.record(RecordingInvocationHandler.createProxy(serviceInterface, recorder));
+        BatchResult result = runningDelegate().invokeAll(recorder.getInvocations());
+        if (result.getFailure() != null) {
+            throw new BatchFailedException(result.getResults().size(), result.getResults(), result.getFailure());
+        }
+        return result.getResults();
+    }
+
+    /**
+     * @param executor runs asynchronous calls the transport cannot send asynchronously
+     */
+    public void setExecutor(ListeningExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public RemoteJvmController<T> getDelegate() {
         return delegate;
     }
 
-    public void setDelegate(JvmController<T> delegate) {
+    public void setDelegate(RemoteJvmController<T> delegate) {
         this.delegate = delegate;
     }
 
+    private RemoteJvmController<T> runningDelegate() {
+        RemoteJvmController<T> running = delegate;
+        if (running == null) {
+            throw new IllegalStateException(this + " is not running");
+        }
+        return running;
+    }
+
     @Override
     public String toString() {
         return "JvmController<" + processName + "@" + uuid + ">";
     }
 
-    public void setDebugPort(Integer debugPort) {
-        this.debugPort = debugPort;
+    /**
+     * @param debug true if the forked JVM was started with a debugging agent
+     */
+    public void setDebug(boolean debug) {
+        this.debug = debug;
     }
 
+    /**
+     * @return the port reported by the debugging agent of the forked JVM,
+     *         null if not debugging or not reported yet
+     */
     @Override
     public Integer getDebugPort() {
-        return debugPort;
+        return debug && output != null ? output.getDebugPort() : null;
     }
 
     @Override
     public boolean isAlive() {
-        boolean alive = false;
-        try {
-            process.exitValue();
-        } catch (IllegalThreadStateException e) {
-            alive = true;
+        return exitCode == null && Processes.isAlive(process);
+    }
+
+    /**
+     * Records the termination of the process, once its output was drained.
+     */
+    public void exited(int exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * @return the exit code of the process, null while it runs
+     */
+    public Integer getExitCode() {
+        if (exitCode == null && !Processes.isAlive(process)) {
+            exitCode = process.exitValue();
         }
-        return alive;
+        return exitCode;
+    }
+
+    public void setLaunchTimes(long spawnMillis, long bootMillis, long connectMillis) {
+        this.spawnMillis = spawnMillis;
+        this.bootMillis = bootMillis;
+        this.connectMillis = connectMillis;
+    }
+
+    public long getSpawnMillis() {
+        return spawnMillis;
+    }
+
+    public long getBootMillis() {
+        return bootMillis;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    @Override
+    public JvmHealth getHealth() {
+        return health;
+    }
+
+    public void setHealth(JvmHealth health) {
+        this.health = health;
     }
 
     public void setProcessName(String processName) {
@@ -110,8 +276,20 @@ public class JvmControllerClientImpl<T> implements JvmController<T> {
         this.uuid = uuid;
     }
 
+    @Override
     public String getUUID() {
         return uuid;
     }
 
+    /**
+     * @return the transport address of the forked JVM services
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
 }
@@ -0,0 +1,278 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.remoting.support.RemoteInvocation;
+
+import biz.vidal.jforkr.Batch;
+import biz.vidal.jforkr.BatchFailedException;
+import biz.vidal.jforkr.EventSink;
+import biz.vidal.jforkr.JvmController;
+import biz.vidal.jforkr.JvmHealth;
+import biz.vidal.jforkr.JvmManager.EventReceiver;
+import biz.vidal.jforkr.ServiceBindings;
+import biz.vidal.jforkr.transport.Codec;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Controller of a service isolated in its own classloader of the current JVM.
+ * Exiting releases the classloader, there is no process to debug or kill.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ * @param <T>
+ */
+public class JvmControllerIsolateImpl<T> implements JvmController<T> {
+
+    private static Logger log = LoggerFactory.getLogger(JvmControllerIsolateImpl.class);
+
+    private final String processName;
+    private final String uuid;
+    private final Class<T> serviceInterface;
+    private final ServiceBindings bindings;
+    private final URL[] classpath;
+    private final Codec codec;
+    private final ListeningExecutorService executor;
+    private volatile ClassLoader classLoader;
+    private final Map<Class<?>, SwappableInvocationHandler> isolateHandlers = new LinkedHashMap<Class<?>, SwappableInvocationHandler>();
+    private final Map<Class<?>, Object> services = new ConcurrentHashMap<Class<?>, Object>();
+    private volatile T remoteService;
+    private volatile T service;
+    private Runnable onExit;
+    private EventReceiver eventReceiver;
+    private long eventDelay;
+
+    /**
+     * @param serviceInterface the interface of the main service
+     * @param classpath of the isolate classloaders
+     * @param codec copies arguments and results across classloaders
+     */
+    public JvmControllerIsolateImpl(String processName, String uuid, Class<T> serviceInterface, ServiceBindings bindings, URL[] classpath, Codec codec, ListeningExecutorService executor) {
+        this.processName = processName;
+        this.uuid = uuid;
+        this.serviceInterface = serviceInterface;
+        this.bindings = bindings;
+        this.classpath = classpath;
+        this.codec = codec;
+        this.executor = executor;
+    }
+
+    /**
+     * @param eventReceiver receives the events the services send through
+     *        their {@link EventSink}
+     */
+    public void setEvents(EventReceiver eventReceiver, long eventDelay) {
+        this.eventReceiver = eventReceiver;
+        this.eventDelay = eventDelay;
+    }
+
+    /**
+     * Instantiates the services in their isolate.
+     */
+    public synchronized void start() throws Exception {
+        for (Entry<Class<?>, Object> isolated : isolate().entrySet()) {
+            SwappableInvocationHandler handler = new SwappableInvocationHandler(isolated.getValue());
+            isolateHandlers.put(isolated.getKey(), handler);
+            services.put(isolated.getKey(), SwappableInvocationHandler.createProxy(isolated.getKey(), handler));
+        }
+        remoteService = serviceInterface.cast(services.get(serviceInterface));
+        service = remoteService;
+    }
+
+    /**
+     * @return proxies copying calls into new instances of the services, all
+     *         in the same new classloader
+     */
+    private Map<Class<?>, Object> isolate() throws Exception {
+        ChildFirstClassLoader isolateClassLoader = new ChildFirstClassLoader(classpath, JvmControllerIsolateImpl.class.getClassLoader());
+        if (eventReceiver != null) {
+            openEvents(isolateClassLoader);
+        }
+        Map<Class<?>, Object> isolated = new LinkedHashMap<Class<?>, Object>();
+        for (Entry<Class<?>, Class<?>> binding : bindings.asMap().entrySet()) {
+            Object instance = Class.forName(binding.getValue().getName(), true, isolateClassLoader).newInstance();
+            isolated.put(binding.getKey(), IsolateInvocationHandler.createProxy(binding.getKey(), new IsolateInvocationHandler(instance, codec)));
+        }
+        classLoader = isolateClassLoader;
+        return isolated;
+    }
+
+    /**
+     * Opens the sink the isolate loaded for itself, its events reach the
+     * receiver through a proxy copying them out of the isolate.
+     */
+    private void openEvents(ClassLoader isolateClassLoader) throws Exception {
+        Class<?> receiverInterface = Class.forName(EventReceiver.class.getName(), false, isolateClassLoader);
+        Object receiver = IsolateInvocationHandler.createProxy(receiverInterface, new IsolateInvocationHandler(eventReceiver, codec));
+        Class<?> sink = Class.forName(EventSink.class.getName(), true, isolateClassLoader);
+        sink.getMethod("open", receiverInterface, String.class, long.class).invoke(null, receiver, uuid, eventDelay);
+    }
+
+    private void closeEvents(ClassLoader isolateClassLoader) {
+        try {
+            Class.forName(EventSink.class.getName(), true, isolateClassLoader).getMethod("close").invoke(null);
+        } catch (Exception e) {
+            log.debug("Could not close events of {}", this, e);
+        }
+    }
+
+    @Override
+    public synchronized void recycle() throws Exception {
+        if (classLoader == null) {
+            throw new IllegalStateException(this + " is not running");
+        }
+        ClassLoader previous = classLoader;
+        for (Entry<Class<?>, Object> isolated : isolate().entrySet()) {
+            isolateHandlers.get(isolated.getKey()).swap(isolated.getValue());
+        }
+        closeEvents(previous);
+        close(previous);
+    }
+
+    private void close(ClassLoader classLoader) {
+        if (classLoader instanceof Closeable) {
+            try {
+                ((Closeable) classLoader).close();
+            } catch (IOException e) {
+                log.debug("Could not close classloader of {}", this, e);
+            }
+        }
+    }
+
+    @Override
+    public T getService() {
+        return service;
+    }
+
+    /**
+     * @param service the service returned to callers when it wraps the isolate proxy
+     */
+    public void setService(T service) {
+        this.service = service;
+    }
+
+    @Override
+    public <S> S getService(Class<S> serviceInterface) {
+        Object service = services.get(serviceInterface);
+        if (service == null) {
+            throw new IllegalArgumentException(this + " hosts no " + serviceInterface.getName());
+        }
+        return serviceInterface.cast(service);
+    }
+
+    public <S> void setService(Class<S> serviceInterface, S service) {
+        services.put(serviceInterface, service);
+    }
+
+    @Override
+    public synchronized void exit() {
+        if (classLoader == null) {
+            log.info("Not running");
+            return;
+        }
+        log.debug("Releasing {}", this);
+        closeEvents(classLoader);
+        close(classLoader);
+        classLoader = null;
+        service = null;
+        remoteService = null;
+        services.clear();
+        if (onExit != null) {
+            onExit.run();
+        }
+    }
+
+    /**
+     * @param onExit run once the isolate is released
+     */
+    public void setOnExit(Runnable onExit) {
+        this.onExit = onExit;
+    }
+
+    @Override
+    public Integer getDebugPort() {
+        return null;
+    }
+
+    @Override
+    public void kill() {
+        exit();
+    }
+
+    @Override
+    public boolean isAlive() {
+        return classLoader != null;
+    }
+
+    @Override
+    public JvmHealth getHealth() {
+        return isAlive() ? JvmHealth.ALIVE : JvmHealth.DEAD;
+    }
+
+    /**
+     * Isolates share the output of the current JVM.
+     */
+    @Override
+    public List<String> recentOutput() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String getProcessName() {
+        return processName;
+    }
+
+    @Override
+    public String getUUID() {
+        return uuid;
+    }
+
+    @Override
+    public <A> A getAsyncService(Class<A> asyncInterface) {
+        return AsyncServiceInvocationHandler.createProxy(serviceInterface, runningService(), asyncInterface, executor);
+    }
+
+    @Override
+    public List<Object> batch(Batch<T> batch) throws Exception {
+        T remoteService = runningService();
+        RecordingInvocationHandler recorder = new RecordingInvocationHandler();
+        batch.record(RecordingInvocationHandler.createProxy(serviceInterface, recorder));
+        BatchResult result = new BatchResult(recorder.getInvocations().size());
+        for (RemoteInvocation invocation : recorder.getInvocations()) {
+            try {
+                Method method = serviceInterface.getMethod(invocation.getMethodName(), invocation.getParameterTypes());
+                result.add(method.invoke(remoteService, invocation.getArguments()));
+            } catch (InvocationTargetException e) {
+                throw new BatchFailedException(result.getResults().size(), result.getResults(), e.getTargetException());
+            }
+        }
+        return result.getResults();
+    }
+
+    private T runningService() {
+        T running = remoteService;
+        if (running == null) {
+            throw new IllegalStateException(this + " is not running");
+        }
+        return running;
+    }
+
+    @Override
+    public String toString() {
+        return "JvmController<" + processName + "@" + uuid + " isolate>";
+    }
+
+}
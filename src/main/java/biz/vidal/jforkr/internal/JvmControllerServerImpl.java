@@ -1,7 +1,13 @@
 package biz.vidal.jforkr.internal;
 
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+import biz.vidal.jforkr.Batch;
 import biz.vidal.jforkr.JvmBootstrapper;
-import biz.vidal.jforkr.JvmController;
+import biz.vidal.jforkr.JvmHealth;
 
 
 /**
@@ -9,7 +15,7 @@ import biz.vidal.jforkr.JvmController;
  *
  * @param <T>
  */
-public class JvmControllerServerImpl<T> implements JvmController<T> {
+public class JvmControllerServerImpl<T> implements RemoteJvmController<T> {
 
     private JvmBootstrapper<T> bootstrapper;
 
@@ -18,11 +24,26 @@ public class JvmControllerServerImpl<T> implements JvmController<T> {
         throw new UnsupportedOperationException("Not supported server side");
     }
 
+    @Override
+    public <S> S getService(Class<S> serviceInterface) {
+        throw new UnsupportedOperationException("Not supported server side");
+    }
+
     @Override
     public void exit() {
         bootstrapper.exit();
     }
 
+    @Override
+    public void recycle() throws Exception {
+        bootstrapper.recycle();
+    }
+
+    @Override
+    public void host(String processName, String... serviceClassNames) throws Exception {
+        bootstrapper.host(processName, serviceClassNames);
+    }
+
     public JvmBootstrapper<T> getBootstrapper() {
         return bootstrapper;
     }
@@ -49,4 +70,59 @@ public class JvmControllerServerImpl<T> implements JvmController<T> {
         return null;
     }
 
+    @Override
+    public String getUUID() {
+        return bootstrapper.getUuid();
+    }
+
+    @Override
+    public JvmHealth getHealth() {
+        throw new UnsupportedOperationException("Not supported server side");
+    }
+
+    @Override
+    public List<String> recentOutput() {
+        throw new UnsupportedOperationException("Not supported server side");
+    }
+
+    @Override
+    public <A> A getAsyncService(Class<A> asyncInterface) {
+        throw new UnsupportedOperationException("Not supported server side");
+    }
+
+    @Override
+    public List<Object> batch(Batch<T> batch) {
+        throw new UnsupportedOperationException("Not supported server side");
+    }
+
+    @Override
+    public BatchResult invokeAll(List<RemoteInvocation> invocations) {
+        return bootstrapper.invokeAll(invocations);
+    }
+
+    @Override
+    public void attachSharedBuffer(String path, int size) throws IOException {
+        bootstrapper.attachSharedBuffer(path, size);
+    }
+
+    @Override
+    public Object invokeShared(RemoteInvocation invocation, int resultOffset, int resultLimit, int threshold) throws Exception {
+        return bootstrapper.invokeShared(invocation, resultOffset, resultLimit, threshold);
+    }
+
+    @Override
+    public StreamChunk openStream(String serviceInterfaceName, RemoteInvocation invocation, int chunkSize) throws Exception {
+        return bootstrapper.openStream(serviceInterfaceName, invocation, chunkSize);
+    }
+
+    @Override
+    public StreamChunk nextChunk(long streamId, int chunkSize) {
+        return bootstrapper.nextChunk(streamId, chunkSize);
+    }
+
+    @Override
+    public void closeStream(long streamId) {
+        bootstrapper.closeStream(streamId);
+    }
+
 }
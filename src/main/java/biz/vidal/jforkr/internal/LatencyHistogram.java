@@ -0,0 +1,87 @@
+package biz.vidal.jforkr.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import biz.vidal.jforkr.LatencyStats;
+
+/**
+ * Lock free latency histogram with power of two microsecond buckets.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 48;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos, boolean failed) {
+        long micros = nanos / 1000;
+        buckets.incrementAndGet(bucket(micros));
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+        totalMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            ; // retry
+        }
+    }
+
+    /**
+     * Bucket i holds values below 2^i microseconds.
+     */
+    private static int bucket(long micros) {
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    public LatencyStats snapshot() {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        long max = maxMicros.get();
+        return new LatencyStats(name, n, errorCount.get(), n == 0 ? 0 : totalMicros.get() / n, percentile(counts, n, .5, max), percentile(counts, n, .9, max), percentile(counts, n, .99, max), max);
+    }
+
+    private static long percentile(long[] counts, long n, double percentile, long max) {
+        long rank = (long) Math.ceil(n * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min((1L << i) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Not atomic, calls recorded meanwhile may be partially cleared.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        errorCount.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+}
@@ -0,0 +1,163 @@
+package biz.vidal.jforkr.internal;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Files handing the classpath to forked JVMs started on the application
+ * classloader: a pathing jar whose manifest Class-Path lists the classpath,
+ * or a java @argfile.
+ * <p>
+ * Files are kept across runs in a directory, named after a hash of the
+ * classpath, so that forked JVMs get an identical classpath from one run to
+ * the next, which class data sharing archives require. As forked JVMs load
+ * their classes from the classpath these files list, the directory is made
+ * private to the current user and a kept file is only reused if it lists the
+ * expected classpath.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class LaunchClasspath {
+
+    /**
+     * First Java version supporting @argfiles.
+     */
+    public static final int ARGFILE_MIN_JAVA_VERSION = 9;
+
+    private static Logger log = LoggerFactory.getLogger(LaunchClasspath.class);
+
+    private final File directory;
+    private final Iterable<File> classpath;
+    private final String key;
+    private File pathingJar;
+    private File argFile;
+    private boolean directoryChecked = false;
+
+    /**
+     * @param directory where files are kept across runs
+     */
+    public LaunchClasspath(File directory, Iterable<File> classpath) {
+        this.directory = directory;
+        this.classpath = classpath;
+        this.key = Hashing.sha1().hashString(Joiner.on(File.pathSeparator).join(classpath), UTF_8).toString();
+    }
+
+    public static boolean isArgFileSupported() {
+        return ClassDataSharing.javaSpecificationVersion() >= ARGFILE_MIN_JAVA_VERSION;
+    }
+
+    /**
+     * @return a jar whose manifest Class-Path is the classpath, written the first time
+     */
+    public synchronized File pathingJar() throws IOException {
+        if (pathingJar == null) {
+            checkDirectory();
+            File jar = new File(directory, "jforkr-classpath-" + key + ".jar");
+            StringBuilder classPath = new StringBuilder();
+            for (File file : classpath) {
+                if (classPath.length() > 0) {
+                    classPath.append(' ');
+                }
+                // Directories must end with a slash, which toURI only adds if they exist
+                String url = file.toURI().toURL().toExternalForm();
+                classPath.append(url).append(file.isDirectory() && !url.endsWith("/") ? "/" : "");
+            }
+            if (!jar.isFile() || !classPath.toString().equals(manifestClassPath(jar))) {
+                Manifest manifest = new Manifest();
+                manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+                manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath.toString());
+                File tmp = temporary(jar);
+                JarOutputStream out = new JarOutputStream(new FileOutputStream(tmp), manifest);
+                out.close();
+                publish(tmp, jar);
+            }
+            pathingJar = jar;
+        }
+        return pathingJar;
+    }
+
+    /**
+     * @return an @argfile setting the classpath, written the first time
+     */
+    public synchronized File argFile() throws IOException {
+        if (argFile == null) {
+            checkDirectory();
+            File file = new File(directory, "jforkr-classpath-" + key + ".args");
+            // Quoted for paths with spaces, backslashes are escapes inside quotes
+            String content = "-cp \"" + Joiner.on(File.pathSeparator).join(classpath).replace("\\", "\\\\") + "\"\n";
+            if (!file.isFile() || !content.equals(Files.toString(file, UTF_8))) {
+                File tmp = temporary(file);
+                Writer out = new OutputStreamWriter(new FileOutputStream(tmp), UTF_8);
+                try {
+                    out.write(content);
+                } finally {
+                    out.close();
+                }
+                publish(tmp, file);
+            }
+            argFile = file;
+        }
+        return argFile;
+    }
+
+    /**
+     * @return the Class-Path of the manifest of the jar, null if it has none or cannot be read
+     */
+    private static String manifestClassPath(File jar) {
+        try {
+            JarFile jarFile = new JarFile(jar);
+            try {
+                Manifest manifest = jarFile.getManifest();
+                return manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) : null;
+            } finally {
+                jarFile.close();
+            }
+        } catch (IOException e) {
+            log.debug("Could not read {}", jar, e);
+            return null;
+        }
+    }
+
+    private void checkDirectory() throws IOException {
+        if (!directoryChecked) {
+            PrivateFiles.createDirectory(directory);
+            directoryChecked = true;
+        }
+    }
+
+    private File temporary(File file) throws IOException {
+        return File.createTempFile(file.getName(), ".tmp", directory);
+    }
+
+    /**
+     * Renames the complete file into place so that another process never
+     * reads it half written.
+     */
+    private void publish(File tmp, File file) throws IOException {
+        // Replacing an existing file fails on Windows
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            tmp.delete();
+            throw new IOException("Could not write " + file);
+        }
+        log.debug("Wrote {}", file);
+    }
+
+}
@@ -0,0 +1,111 @@
+package biz.vidal.jforkr.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import biz.vidal.jforkr.ForkTiming;
+import biz.vidal.jforkr.LatencyStats;
+
+/**
+ * Fork and service call metrics of a JvmManager.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class Metrics {
+
+    private static final int RECENT_FORKS = 100;
+
+    private final AtomicLong forkCount = new AtomicLong();
+    private final Deque<ForkTiming> recentForks = new ArrayDeque<ForkTiming>(RECENT_FORKS);
+    private final ConcurrentMap<String, LatencyHistogram> phases = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<String, LatencyHistogram> methods = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public void recordFork(ForkTiming timing) {
+        forkCount.incrementAndGet();
+        synchronized (recentForks) {
+            if (recentForks.size() == RECENT_FORKS) {
+                recentForks.removeFirst();
+            }
+            recentForks.addLast(timing);
+        }
+        if (!timing.isPooled()) {
+            recordPhase("spawn", timing.getSpawnMillis());
+            recordPhase("boot", timing.getBootMillis());
+            recordPhase("connect", timing.getConnectMillis());
+        } else {
+            recordPhase("host", timing.getHostMillis());
+        }
+        recordPhase("serviceLookup", timing.getServiceLookupMillis());
+        recordPhase("fork", timing.getTotalMillis());
+    }
+
+    private void recordPhase(String phase, long millis) {
+        histogram(phases, phase).record(millis * 1000000, false);
+    }
+
+    /**
+     * @return the histogram of a service method, created on first use
+     */
+    public LatencyHistogram methodHistogram(String processName, String methodName) {
+        return histogram(methods, processName + "#" + methodName);
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram(name);
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    public long getForkCount() {
+        return forkCount.get();
+    }
+
+    public List<ForkTiming> getRecentForks() {
+        synchronized (recentForks) {
+            return new ArrayList<ForkTiming>(recentForks);
+        }
+    }
+
+    public List<LatencyStats> getForkPhaseStats() {
+        return snapshot(phases);
+    }
+
+    public List<LatencyStats> getMethodStats() {
+        return snapshot(methods);
+    }
+
+    private static List<LatencyStats> snapshot(ConcurrentMap<String, LatencyHistogram> histograms) {
+        List<LatencyStats> stats = new ArrayList<LatencyStats>(histograms.size());
+        for (LatencyHistogram histogram : histograms.values()) {
+            stats.add(histogram.snapshot());
+        }
+        return stats;
+    }
+
+    public void reset() {
+        forkCount.set(0);
+        synchronized (recentForks) {
+            recentForks.clear();
+        }
+        // Method histograms are cached by proxies, clear them in place
+        for (LatencyHistogram histogram : phases.values()) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : methods.values()) {
+            histogram.reset();
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package biz.vidal.jforkr.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Measures the latency of the calls made on a service proxy.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class MetricsInvocationHandler implements InvocationHandler {
+
+    private final Object target;
+    private final Metrics metrics;
+    private final String processName;
+    private final ConcurrentMap<Method, LatencyHistogram> histograms = new ConcurrentHashMap<Method, LatencyHistogram>();
+
+    public MetricsInvocationHandler(Object target, Metrics metrics, String processName) {
+        this.target = target;
+        this.metrics = metrics;
+        this.processName = processName;
+    }
+
+    public static <T> T createProxy(Class<T> serviceInterface, T target, Metrics metrics, String processName) {
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface }, new MetricsInvocationHandler(target, metrics, processName)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(target, args);
+        }
+        LatencyHistogram histogram = histograms.get(method);
+        if (histogram == null) {
+            histogram = metrics.methodHistogram(processName, method.getName());
+            histograms.put(method, histogram);
+        }
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            Object result = method.invoke(target, args);
+            failed = false;
+            return result;
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        } finally {
+            histogram.record(System.nanoTime() - start, failed);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package biz.vidal.jforkr.internal;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.vidal.jforkr.output.OutputSink;
+
+/**
+ * Drains the output of all the forked JVMs from a single thread.
+ * <p>
+ * Process streams cannot be selected, so the pump polls them for available
+ * bytes and only reads what can be read without blocking. It sleeps while no
+ * process has pending output.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class OutputPump implements Runnable {
+
+    private static Logger log = LoggerFactory.getLogger(OutputPump.class);
+
+    private static final long IDLE_MILLIS = 10;
+
+    private final List<ProcessOutput> outputs = new CopyOnWriteArrayList<ProcessOutput>();
+    private final List<OutputSink> sinks;
+    private volatile boolean stopped = false;
+    private Thread thread;
+
+    public OutputPump(List<OutputSink> sinks) {
+        this.sinks = sinks;
+    }
+
+    public synchronized void start() {
+        thread = new Thread(this, "jforkr-output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts pumping the output of a process, its error stream must be
+     * redirected to its output stream.
+     *
+     * @param capacity number of recent lines kept
+     * @param onEnd run once the process terminated and its output was drained
+     */
+    public ProcessOutput register(Process process, String processName, int capacity, Runnable onEnd) {
+        ProcessOutput output = new ProcessOutput(process, processName, capacity, sinks, onEnd);
+        outputs.add(output);
+        return output;
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[8192];
+        boolean flushed = true;
+        while (!stopped) {
+            boolean busy = false;
+            for (ProcessOutput output : outputs) {
+                try {
+                    if (output.drain(buffer)) {
+                        busy = true;
+                        if (output.isEnded()) {
+                            outputs.remove(output);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Failed to pump output", e);
+                }
+            }
+            if (busy) {
+                flushed = false;
+                continue;
+            }
+            if (!flushed) {
+                for (OutputSink sink : sinks) {
+                    sink.flush();
+                }
+                flushed = true;
+            }
+            try {
+                Thread.sleep(IDLE_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stops pumping after draining the output of the terminated processes.
+     */
+    public void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] buffer = new byte[8192];
+        for (ProcessOutput output : outputs) {
+            if (!output.isAlive()) {
+                output.drain(buffer);
+            }
+        }
+        outputs.clear();
+        for (OutputSink sink : sinks) {
+            sink.flush();
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.security.Principal;
+
+/**
+ * Files and directories only the current user can access, for what forked
+ * JVMs load or exchange through the file system.
+ * <p>
+ * Ownership is checked with the Java 7 file API when the runtime has it.
+ * Otherwise only restricting the permissions proves it, which fails unless
+ * the current user owns the file. Windows is skipped, its temporary
+ * directories are per user and it does not support removing the execute
+ * permission.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class PrivateFiles {
+
+    private static final boolean WINDOWS = File.separatorChar == '\\';
+
+    /**
+     * Creates the directory, or takes over an existing one, with permissions
+     * for the current user only.
+     *
+     * @throws IOException if it could not be created, belongs to another
+     *         user or its permissions could not be restricted
+     */
+    public static void createDirectory(File directory) throws IOException {
+        directory.mkdirs();
+        if (!directory.isDirectory()) {
+            throw new IOException("Could not create " + directory);
+        }
+        restrict(directory);
+    }
+
+    /**
+     * Restricts the permissions of an existing file or directory to the
+     * current user.
+     *
+     * @throws IOException if it belongs to another user or its permissions
+     *         could not be restricted
+     */
+    public static void restrict(File file) throws IOException {
+        if (WINDOWS) {
+            return;
+        }
+        if (!isOwnedByCurrentUser(file)) {
+            throw new IOException(file + " belongs to another user");
+        }
+        boolean executable = file.isDirectory();
+        boolean restricted = file.setReadable(false, false) & file.setWritable(false, false) & file.setExecutable(false, false);
+        boolean granted = file.setReadable(true, true) & file.setWritable(true, true) & (!executable || file.setExecutable(true, true));
+        if (!restricted || !granted) {
+            throw new IOException("Could not make " + file + " private, it may belong to another user");
+        }
+    }
+
+    /**
+     * @return false if the runtime tells the file belongs to another user,
+     *         true if it belongs to the current user or the runtime cannot
+     *         tell
+     */
+    public static boolean isOwnedByCurrentUser(File file) {
+        if (WINDOWS) {
+            return true;
+        }
+        try {
+            Class<?> linkOption = Class.forName("java.nio.file.LinkOption");
+            Class<?> files = Class.forName("java.nio.file.Files");
+            Method getOwner = files.getMethod("getOwner", Class.forName("java.nio.file.Path"), Array.newInstance(linkOption, 0).getClass());
+            Object path = File.class.getMethod("toPath").invoke(file);
+            Object owner = getOwner.invoke(null, path, Array.newInstance(linkOption, 0));
+            return System.getProperty("user.name").equals(((Principal) owner).getName());
+        } catch (ClassNotFoundException e) {
+            return true;
+        } catch (NoSuchMethodException e) {
+            return true;
+        } catch (Exception e) {
+            // Missing file or unreadable owner
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.vidal.jforkr.output.OutputSink;
+
+/**
+ * Output of a forked JVM: splits it into lines, keeps the most recent ones in
+ * a bounded buffer and hands them to the sinks.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ProcessOutput {
+
+    private static Logger log = LoggerFactory.getLogger(ProcessOutput.class);
+
+    /**
+     * Longer lines are split so that a process never writing a line feed
+     * cannot exhaust memory.
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Output read once the process terminated. A child process of the forked
+     * JVM may have inherited the pipe and keep writing to it.
+     */
+    private static final int MAX_FINAL_OUTPUT = 1024 * 1024;
+
+    /**
+     * Printed by the JDWP agent when started without address.
+     */
+    private static final String DEBUG_PORT_PREFIX = "Listening for transport dt_socket at address: ";
+
+    private final Process process;
+    private final InputStream in;
+    private final List<OutputSink> sinks;
+    private final Runnable onEnd;
+    private final int capacity;
+    private final Deque<String> recent;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    private volatile String processName;
+    /**
+     * Name the sinks were last given, only accessed by the pump.
+     */
+    private String sinkName;
+    private volatile boolean ended = false;
+    private volatile Integer debugPort;
+
+    /**
+     * @param capacity number of lines kept
+     * @param onEnd run by the pump once the process terminated and its output was drained
+     */
+    public ProcessOutput(Process process, String processName, int capacity, List<OutputSink> sinks, Runnable onEnd) {
+        this.process = process;
+        this.in = process.getInputStream();
+        this.processName = processName;
+        this.sinkName = processName;
+        this.capacity = capacity;
+        this.recent = new ArrayDeque<String>(Math.min(capacity, 1024));
+        this.sinks = sinks;
+        this.onEnd = onEnd;
+    }
+
+    /**
+     * Reads what is available without blocking.
+     *
+     * @return true if something was read or the output ended
+     */
+    boolean drain(byte[] buffer) {
+        try {
+            int available = in.available();
+            if (available > 0) {
+                append(buffer, in.read(buffer, 0, Math.min(available, buffer.length)));
+                return true;
+            }
+            if (Processes.isAlive(process)) {
+                return false;
+            }
+            // Terminated, only read what is buffered: the end of the stream
+            // never comes while a child process holds the pipe open
+            int total = 0;
+            while (total < MAX_FINAL_OUTPUT && (available = in.available()) > 0) {
+                int read = in.read(buffer, 0, Math.min(available, buffer.length));
+                if (read <= 0) {
+                    break;
+                }
+                append(buffer, read);
+                total += read;
+            }
+        } catch (IOException e) {
+            log.debug("Could not read output of {}", processName, e);
+        }
+        end();
+        return true;
+    }
+
+    private void append(byte[] buffer, int length) {
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == '\n') {
+                line.write(buffer, start, i - start);
+                newLine();
+                start = i + 1;
+            }
+        }
+        line.write(buffer, start, length - start);
+        if (line.size() >= MAX_LINE_LENGTH) {
+            newLine();
+        }
+    }
+
+    private void newLine() {
+        String text = line.toString();
+        line.reset();
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        if (debugPort == null && text.startsWith(DEBUG_PORT_PREFIX)) {
+            debugPort = parsePort(text.substring(DEBUG_PORT_PREFIX.length()));
+        }
+        if (capacity > 0) {
+            synchronized (recent) {
+                if (recent.size() == capacity) {
+                    recent.removeFirst();
+                }
+                recent.addLast(text);
+            }
+        }
+        String name = processName;
+        if (!name.equals(sinkName)) {
+            // Renamed, e.g. a pooled JVM handed out
+            for (OutputSink sink : sinks) {
+                sink.close(sinkName);
+            }
+            sinkName = name;
+        }
+        for (OutputSink sink : sinks) {
+            sink.write(name, text);
+        }
+    }
+
+    private void end() {
+        if (line.size() > 0) {
+            newLine();
+        }
+        ended = true;
+        for (OutputSink sink : sinks) {
+            sink.close(sinkName);
+        }
+        if (onEnd != null) {
+            onEnd.run();
+        }
+    }
+
+    /**
+     * @return the most recent output lines, oldest first
+     */
+    public List<String> recent() {
+        synchronized (recent) {
+            return new ArrayList<String>(recent);
+        }
+    }
+
+    boolean isAlive() {
+        return Processes.isAlive(process);
+    }
+
+    /**
+     * @return the port the JDWP agent of the process listens on, null if not reported
+     */
+    public Integer getDebugPort() {
+        return debugPort;
+    }
+
+    /**
+     * @param address port or host:port
+     */
+    static Integer parsePort(String address) {
+        try {
+            return Integer.valueOf(address.substring(address.lastIndexOf(':') + 1).trim());
+        } catch (NumberFormatException e) {
+            log.warn("Could not parse debug address {}", address);
+            return null;
+        }
+    }
+
+    public boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * Following output goes to the sinks under the new name, they are told
+     * to close the previous one.
+     */
+    public void setProcessName(String processName) {
+        this.processName = processName;
+    }
+
+}
@@ -0,0 +1,60 @@
+package biz.vidal.jforkr.internal;
+
+import java.lang.reflect.Method;
+
+/**
+ * Process operations using the Java 8 Process API when the runtime has it.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class Processes {
+
+    private static final Method IS_ALIVE = method("isAlive");
+    private static final Method DESTROY_FORCIBLY = method("destroyForcibly");
+
+    private static Method method(String name) {
+        try {
+            return Process.class.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Process.isAlive() does not throw an exception for every check of a
+     * running process, unlike exitValue().
+     */
+    public static boolean isAlive(Process process) {
+        if (IS_ALIVE != null) {
+            try {
+                return (Boolean) IS_ALIVE.invoke(process);
+            } catch (Exception e) {
+                ; // fall back to exitValue
+            }
+        }
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Kills the process (SIGKILL on Unix) rather than asking it to terminate,
+     * when the runtime supports it.
+     */
+    public static void destroyForcibly(Process process) {
+        if (DESTROY_FORCIBLY != null) {
+            try {
+                DESTROY_FORCIBLY.invoke(process);
+                return;
+            } catch (Exception e) {
+                ; // fall back to destroy
+            }
+        }
+        process.destroy();
+    }
+
+}
@@ -0,0 +1,64 @@
+package biz.vidal.jforkr.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Records the calls made on a proxy so that they can be replayed elsewhere.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class RecordingInvocationHandler implements InvocationHandler {
+
+    private final List<RemoteInvocation> invocations = new ArrayList<RemoteInvocation>();
+
+    public static <T> T createProxy(Class<T> serviceInterface, RecordingInvocationHandler handler) {
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface }, handler));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return "Recording proxy";
+        }
+        invocations.add(new RemoteInvocation(method.getName(), method.getParameterTypes(), args));
+        return defaultValue(method.getReturnType());
+    }
+
+    public List<RemoteInvocation> getInvocations() {
+        return invocations;
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        }
+        return 0d;
+    }
+
+}
@@ -0,0 +1,66 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+import biz.vidal.jforkr.JvmController;
+
+/**
+ * Controller interface exported by the forked JVM. Adds the operations the
+ * parent JVM needs on top of the public {@link JvmController} API.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ * @param <T>
+ */
+public interface RemoteJvmController<T> extends JvmController<T> {
+
+    /**
+     * Instantiates and exports services in a JVM that was booted without any
+     * (pooled JVM).
+     *
+     * @param serviceClassNames the service interface and class names, in pairs
+     */
+    public void host(String processName, String... serviceClassNames) throws Exception;
+
+    /**
+     * Runs recorded service calls in order, stopping at the first failure.
+     */
+    public BatchResult invokeAll(List<RemoteInvocation> invocations);
+
+    /**
+     * Maps the file of a {@link SharedBuffer} created by the forking JVM.
+     */
+    public void attachSharedBuffer(String path, int size) throws IOException;
+
+    /**
+     * Runs a service call whose large arguments were placed in the shared
+     * buffer. Large byte array or buffer results are placed in the shared
+     * buffer at resultOffset if they fit before resultLimit, the end of the
+     * region reserved for the call.
+     *
+     * @return the result of the call or a {@link SharedBufferRef} to it
+     */
+    public Object invokeShared(RemoteInvocation invocation, int resultOffset, int resultLimit, int threshold) throws Exception;
+
+    /**
+     * Runs a service call whose result is streamed.
+     *
+     * @return the first chunk of the result, null if the call returned null
+     */
+    public StreamChunk openStream(String serviceInterfaceName, RemoteInvocation invocation, int chunkSize) throws Exception;
+
+    /**
+     * Pulls the next chunk of a streamed result. The stream is released once
+     * its last chunk is sent.
+     */
+    public StreamChunk nextChunk(long streamId, int chunkSize);
+
+    /**
+     * Releases a streamed result before its end.
+     */
+    public void closeStream(long streamId);
+
+}
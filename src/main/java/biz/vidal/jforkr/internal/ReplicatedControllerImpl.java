@@ -0,0 +1,166 @@
+package biz.vidal.jforkr.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.remoting.RemoteConnectFailureException;
+
+import biz.vidal.jforkr.JvmController;
+import biz.vidal.jforkr.JvmHealth;
+import biz.vidal.jforkr.LoadBalancing;
+import biz.vidal.jforkr.ReplicaStats;
+import biz.vidal.jforkr.ReplicatedController;
+
+/**
+ * Routes the calls made on a single proxy across the replicas of a service.
+ * <p>
+ * Replicas which exited or are reported dead or hung by the failure detector
+ * are skipped. A call failing because its request could not be sent to its
+ * replica, signalled by a {@link RemoteConnectFailureException}, is retried
+ * once on each of the other live replicas. Calls which may have run are never
+ * retried.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ * @param <T>
+ */
+public class ReplicatedControllerImpl<T> implements ReplicatedController<T>, InvocationHandler {
+
+    private static Logger log = LoggerFactory.getLogger(ReplicatedControllerImpl.class);
+
+    private static class Replica<T> {
+        final JvmController<T> controller;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+
+        Replica(JvmController<T> controller) {
+            this.controller = controller;
+        }
+
+        boolean isAvailable() {
+            JvmHealth health = controller.getHealth();
+            return health != JvmHealth.DEAD && health != JvmHealth.HUNG && controller.isAlive();
+        }
+    }
+
+    private final String processName;
+    private final LoadBalancing loadBalancing;
+    private final List<Replica<T>> replicas = new ArrayList<Replica<T>>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final T service;
+
+    public ReplicatedControllerImpl(String processName, Class<T> serviceInterface, List<JvmController<T>> controllers, LoadBalancing loadBalancing) {
+        this.processName = processName;
+        this.loadBalancing = loadBalancing;
+        for (JvmController<T> controller : controllers) {
+            replicas.add(new Replica<T>(controller));
+        }
+        this.service = serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface }, this));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return "Replicated proxy of " + processName;
+        }
+        Set<Replica<T>> unreachable = null;
+        while (true) {
+            Replica<T> replica = select(unreachable);
+            replica.calls.incrementAndGet();
+            replica.outstanding.incrementAndGet();
+            try {
+                return method.invoke(replica.controller.getService(), args);
+            } catch (InvocationTargetException e) {
+                replica.errors.incrementAndGet();
+                if (!(e.getTargetException() instanceof RemoteConnectFailureException)) {
+                    throw e.getTargetException();
+                }
+                log.debug("Could not reach {}, trying another replica", replica.controller, e.getTargetException());
+                if (unreachable == null) {
+                    unreachable = new HashSet<Replica<T>>();
+                }
+                unreachable.add(replica);
+            } finally {
+                replica.outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param excluded replicas not to pick, may be null
+     */
+    private Replica<T> select(Set<Replica<T>> excluded) {
+        int count = replicas.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % count;
+        Replica<T> selected = null;
+        for (int i = 0; i < count; i++) {
+            Replica<T> replica = replicas.get((start + i) % count);
+            if ((excluded != null && excluded.contains(replica)) || !replica.isAvailable()) {
+                continue;
+            }
+            if (loadBalancing == LoadBalancing.ROUND_ROBIN) {
+                return replica;
+            }
+            if (selected == null || replica.outstanding.get() < selected.outstanding.get()) {
+                selected = replica;
+            }
+        }
+        if (selected == null) {
+            throw new RemoteConnectFailureException("No live replica of " + processName, null);
+        }
+        return selected;
+    }
+
+    @Override
+    public T getService() {
+        return service;
+    }
+
+    @Override
+    public List<JvmController<T>> getReplicas() {
+        List<JvmController<T>> controllers = new ArrayList<JvmController<T>>(replicas.size());
+        for (Replica<T> replica : replicas) {
+            controllers.add(replica.controller);
+        }
+        return Collections.unmodifiableList(controllers);
+    }
+
+    @Override
+    public List<ReplicaStats> getReplicaStats() {
+        List<ReplicaStats> stats = new ArrayList<ReplicaStats>(replicas.size());
+        for (Replica<T> replica : replicas) {
+            stats.add(new ReplicaStats(replica.controller.getProcessName(), replica.isAvailable(), replica.calls.get(), replica.errors.get(), replica.outstanding.get()));
+        }
+        return stats;
+    }
+
+    @Override
+    public void exit() {
+        for (Replica<T> replica : replicas) {
+            replica.controller.exit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicatedController<" + processName + " x" + replicas.size() + " " + loadBalancing + ">";
+    }
+
+}
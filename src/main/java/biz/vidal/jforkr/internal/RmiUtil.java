@@ -1,5 +1,9 @@
 package biz.vidal.jforkr.internal;
 
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -19,7 +23,19 @@ public class RmiUtil {
 
         String url = "rmi://localhost:" + port + "/" + serviceName;
         log.debug("Creating RMI proxy for " + serviceInterface + " on " + url);
-        RmiProxyFactoryBean rmiFactory = new RmiProxyFactoryBean();
+        RmiProxyFactoryBean rmiFactory = new RmiProxyFactoryBean() {
+            /**
+             * Spring also takes any failure caused by a SocketException, e.g.
+             * a connection reset once the call was sent, for a connect
+             * failure. Only failures to reach the remote object mean the call
+             * did not run and can safely be retried, by the stub refresh or
+             * on another replica.
+             */
+            @Override
+            protected boolean isConnectFailure(RemoteException ex) {
+                return ex instanceof ConnectException || ex instanceof ConnectIOException || ex instanceof NoSuchObjectException;
+            }
+        };
         rmiFactory.setServiceInterface(serviceInterface);
         rmiFactory.setServiceUrl(url);
         rmiFactory.setRefreshStubOnConnectFailure(true);
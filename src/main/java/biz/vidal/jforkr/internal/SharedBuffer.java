@@ -0,0 +1,97 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Memory mapped file region shared by the forking JVM and a forked JVM to
+ * pass large byte arrays and buffers without serializing them.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class SharedBuffer {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * @param create true to create the file with the given size, only
+     *        accessible to the current user, false to map an existing one
+     */
+    public SharedBuffer(File file, int size, boolean create) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (create) {
+                PrivateFiles.restrict(file);
+                raf.setLength(size);
+            }
+            buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Copies the value to the region, the value must be a byte array or a buffer.
+     *
+     * @return a reference to the copy
+     */
+    public SharedBufferRef put(int offset, Object value) {
+        ByteBuffer region = buffer.duplicate();
+        region.position(offset);
+        if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            region.put(bytes);
+            return new SharedBufferRef(offset, bytes.length, false);
+        }
+        ByteBuffer source = ((ByteBuffer) value).duplicate();
+        int length = source.remaining();
+        region.put(source);
+        return new SharedBufferRef(offset, length, true);
+    }
+
+    /**
+     * @param copy true to copy buffers out of the region, false to return a
+     *        read-only view which is only valid until the region is reused
+     * @return the referenced byte array or buffer
+     */
+    public Object get(SharedBufferRef ref, boolean copy) {
+        ByteBuffer region = buffer.duplicate();
+        region.position(ref.getOffset());
+        region.limit(ref.getOffset() + ref.getLength());
+        if (ref.isByteBuffer() && !copy) {
+            return region.slice().asReadOnlyBuffer();
+        }
+        byte[] bytes = new byte[ref.getLength()];
+        region.get(bytes);
+        return ref.isByteBuffer() ? ByteBuffer.wrap(bytes) : bytes;
+    }
+
+    /**
+     * @return the size of the value if it is a byte array or a buffer which
+     *         can be placed in a shared buffer, -1 otherwise
+     */
+    public static int sizeOf(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).remaining();
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,168 @@
+package biz.vidal.jforkr.internal;
+
+import static biz.vidal.jforkr.internal.SharedBuffer.sizeOf;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Service proxy passing large byte arrays and buffers through a
+ * {@link SharedBuffer} instead of the transport. Only offsets go over the
+ * transport, through the forked JVM controller.
+ * <p>
+ * The shared buffer is split in slots, each call going through it holds one
+ * slot for its arguments and result so that concurrent calls do not wait
+ * for each other. Calls with an argument of at least the threshold size, or
+ * to a method whose last byte array or buffer result was that large, go
+ * through the shared buffer when a slot is free. Other calls go straight to
+ * the transport.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class SharedBufferInvocationHandler implements InvocationHandler {
+
+    private final Object service;
+    private final RemoteJvmController<?> controller;
+    private final File file;
+    private final int size;
+    private final int threshold;
+    private final int slotSize;
+    private final BlockingQueue<Integer> freeSlots = new LinkedBlockingQueue<Integer>();
+    private final ConcurrentMap<Method, Boolean> largeResults = new ConcurrentHashMap<Method, Boolean>();
+    private volatile SharedBuffer buffer;
+
+    /**
+     * @param service the transport proxy of the service
+     * @param file the file to map, created on first use
+     * @param slots number of calls which can use the shared buffer at once
+     * @param threshold size from which arrays and buffers go through the shared buffer
+     */
+    public SharedBufferInvocationHandler(Object service, RemoteJvmController<?> controller, File file, int size, int slots, int threshold) {
+        this.service = service;
+        this.controller = controller;
+        this.file = file;
+        this.size = size;
+        this.threshold = threshold;
+        this.slotSize = size / slots;
+        for (int i = 0; i < slots; i++) {
+            freeSlots.add(i);
+        }
+    }
+
+    public static <T> T createProxy(Class<T> serviceInterface, SharedBufferInvocationHandler handler) {
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface }, handler));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() != Object.class && isShared(method, args)) {
+            Integer slot = freeSlots.poll();
+            if (slot != null) {
+                try {
+                    int slotOffset = slot * slotSize;
+                    Object[] sharedArgs = share(args, slotOffset);
+                    if (sharedArgs != null) {
+                        int resultOffset = slotOffset;
+                        for (Object arg : sharedArgs) {
+                            if (arg instanceof SharedBufferRef) {
+                                resultOffset += ((SharedBufferRef) arg).getLength();
+                            }
+                        }
+                        Object result = controller.invokeShared(new RemoteInvocation(method.getName(), method.getParameterTypes(), sharedArgs), resultOffset, slotOffset + slotSize, threshold);
+                        if (result instanceof SharedBufferRef) {
+                            return buffer.get((SharedBufferRef) result, true);
+                        }
+                        recordResult(method, result);
+                        return result;
+                    }
+                } finally {
+                    freeSlots.add(slot);
+                }
+            }
+        }
+        Object result;
+        try {
+            result = method.invoke(service, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+        recordResult(method, result);
+        return result;
+    }
+
+    private boolean isShared(Method method, Object[] args) {
+        if (largeResults.containsKey(method)) {
+            return true;
+        }
+        if (args != null) {
+            for (Object arg : args) {
+                if (sizeOf(arg) >= threshold) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers whether the next results of the method are expected to be
+     * large enough for the shared buffer.
+     */
+    private void recordResult(Method method, Object result) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType != byte[].class && returnType != ByteBuffer.class) {
+            return;
+        }
+        if (sizeOf(result) >= threshold) {
+            largeResults.put(method, Boolean.TRUE);
+        } else {
+            largeResults.remove(method);
+        }
+    }
+
+    /**
+     * Copies the large arguments to the slot starting at slotOffset.
+     *
+     * @return the arguments with references to the shared buffer, or null if
+     *         they do not fit in the slot
+     */
+    private Object[] share(Object[] args, int slotOffset) throws Exception {
+        if (buffer == null) {
+            synchronized (this) {
+                if (buffer == null) {
+                    SharedBuffer created = new SharedBuffer(file, size, true);
+                    controller.attachSharedBuffer(file.getAbsolutePath(), size);
+                    buffer = created;
+                }
+            }
+        }
+        if (args == null) {
+            return new Object[0];
+        }
+        Object[] sharedArgs = args.clone();
+        int offset = slotOffset;
+        for (int i = 0; i < args.length; i++) {
+            int argSize = sizeOf(args[i]);
+            if (argSize >= threshold) {
+                if (offset + argSize > slotOffset + slotSize) {
+                    return null;
+                }
+                sharedArgs[i] = buffer.put(offset, args[i]);
+                offset += argSize;
+            }
+        }
+        return sharedArgs;
+    }
+
+}
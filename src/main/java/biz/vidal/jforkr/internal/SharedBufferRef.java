@@ -0,0 +1,37 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.Serializable;
+
+/**
+ * Sent instead of a byte array or buffer placed in a {@link SharedBuffer}.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class SharedBufferRef implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int offset;
+    private final int length;
+    private final boolean byteBuffer;
+
+    public SharedBufferRef(int offset, int length, boolean byteBuffer) {
+        this.offset = offset;
+        this.length = length;
+        this.byteBuffer = byteBuffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isByteBuffer() {
+        return byteBuffer;
+    }
+
+}
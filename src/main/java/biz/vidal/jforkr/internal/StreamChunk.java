@@ -0,0 +1,55 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Elements of a streamed result sent by the forked JVM in response to a pull.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class StreamChunk implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long streamId;
+    private final ArrayList<Object> elements;
+    private final boolean last;
+
+    public StreamChunk(long streamId, ArrayList<Object> elements, boolean last) {
+        this.streamId = streamId;
+        this.elements = elements;
+        this.last = last;
+    }
+
+    /**
+     * Takes up to chunkSize elements from the iterator.
+     */
+    public static StreamChunk read(long streamId, Iterator<?> iterator, int chunkSize) {
+        ArrayList<Object> elements = new ArrayList<Object>(chunkSize);
+        while (elements.size() < chunkSize && iterator.hasNext()) {
+            elements.add(iterator.next());
+        }
+        return new StreamChunk(streamId, elements, !iterator.hasNext());
+    }
+
+    public long getStreamId() {
+        return streamId;
+    }
+
+    public List<Object> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return true when the stream has no more elements and was released by
+     *         the forked JVM
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+}
@@ -0,0 +1,57 @@
+package biz.vidal.jforkr.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Service proxy streaming the results of the methods returning an Iterator,
+ * a Stream or a {@link biz.vidal.jforkr.RemoteStream}: the call opens the
+ * stream through the forked JVM controller and elements are then pulled in
+ * chunks as they are consumed. Other calls go straight to the transport.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class StreamingInvocationHandler implements InvocationHandler {
+
+    private final Object service;
+    private final Class<?> serviceInterface;
+    private final RemoteJvmController<?> controller;
+    private final int chunkSize;
+
+    /**
+     * @param service the transport proxy of the service
+     * @param chunkSize maximum number of elements sent per pull
+     */
+    public StreamingInvocationHandler(Object service, Class<?> serviceInterface, RemoteJvmController<?> controller, int chunkSize) {
+        this.service = service;
+        this.serviceInterface = serviceInterface;
+        this.controller = controller;
+        this.chunkSize = chunkSize;
+    }
+
+    public static <T> T createProxy(Class<T> serviceInterface, StreamingInvocationHandler handler) {
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface }, handler));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() != Object.class && Streams.isStreamed(method.getReturnType())) {
+            StreamChunk first = controller.openStream(serviceInterface.getName(), new RemoteInvocation(method.getName(), method.getParameterTypes(), args), chunkSize);
+            if (first == null) {
+                return null;
+            }
+            return Streams.adapt(new ChunkedRemoteStream<Object>(controller, first, chunkSize), method.getReturnType());
+        }
+        try {
+            return method.invoke(service, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package biz.vidal.jforkr.internal;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import biz.vidal.jforkr.RemoteStream;
+
+/**
+ * Streamed results: {@link Iterator}, {@link RemoteStream} and, when the
+ * runtime has it (Java 8), <code>java.util.stream.Stream</code>.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class Streams {
+
+    private static Logger log = LoggerFactory.getLogger(Streams.class);
+
+    private static final Class<?> STREAM = load("java.util.stream.Stream");
+    private static final Class<?> BASE_STREAM = load("java.util.stream.BaseStream");
+
+    private static Class<?> load(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if results of the given type are streamed
+     */
+    public static boolean isStreamed(Class<?> returnType) {
+        return returnType == Iterator.class || returnType == RemoteStream.class || (STREAM != null && returnType == STREAM);
+    }
+
+    /**
+     * @return true if the interface has a method whose result is streamed
+     */
+    public static boolean hasStreamedMethod(Class<?> serviceInterface) {
+        for (Method method : serviceInterface.getMethods()) {
+            if (isStreamed(method.getReturnType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param result an Iterator or a Stream
+     */
+    public static Iterator<?> iterator(Object result) throws Exception {
+        if (result instanceof Iterator) {
+            return (Iterator<?>) result;
+        }
+        if (BASE_STREAM != null && BASE_STREAM.isInstance(result)) {
+            return (Iterator<?>) BASE_STREAM.getMethod("iterator").invoke(result);
+        }
+        throw new IllegalArgumentException("Cannot stream " + result.getClass().getName());
+    }
+
+    /**
+     * Closes the source of a streamed result, if it can be closed.
+     */
+    public static void close(Object result) {
+        try {
+            if (result instanceof Closeable) {
+                ((Closeable) result).close();
+            } else if (BASE_STREAM != null && BASE_STREAM.isInstance(result)) {
+                BASE_STREAM.getMethod("close").invoke(result);
+            }
+        } catch (Exception e) {
+            log.warn("Could not close streamed result", e);
+        }
+    }
+
+    /**
+     * @return the stream as an instance of the return type, a Stream closing
+     *         the remote stream when closed if the method returns a Stream
+     */
+    public static Object adapt(final RemoteStream<?> stream, Class<?> returnType) throws Exception {
+        if (STREAM == null || returnType != STREAM) {
+            return stream;
+        }
+        Class<?> spliterators = Class.forName("java.util.Spliterators");
+        Object spliterator = spliterators.getMethod("spliteratorUnknownSize", Iterator.class, int.class).invoke(null, stream, 0);
+        Class<?> streamSupport = Class.forName("java.util.stream.StreamSupport");
+        Object result = streamSupport.getMethod("stream", Class.forName("java.util.Spliterator"), boolean.class).invoke(null, spliterator, false);
+        return BASE_STREAM.getMethod("onClose", Runnable.class).invoke(result, new Runnable() {
+            @Override
+            public void run() {
+                close(stream);
+            }
+        });
+    }
+
+}
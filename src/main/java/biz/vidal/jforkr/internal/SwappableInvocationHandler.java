@@ -0,0 +1,56 @@
+package biz.vidal.jforkr.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Forwards calls to a target which can be replaced at any time, so that a
+ * service can be recycled without being exported again.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class SwappableInvocationHandler implements InvocationHandler {
+
+    private volatile Object target;
+
+    public SwappableInvocationHandler(Object target) {
+        this.target = target;
+    }
+
+    public static <T> T createProxy(Class<T> serviceInterface, SwappableInvocationHandler handler) {
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(), new Class<?>[] { serviceInterface }, handler));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    public Object getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the previous target
+     */
+    public Object swap(Object target) {
+        Object previous = this.target;
+        this.target = target;
+        return previous;
+    }
+
+}
@@ -0,0 +1,38 @@
+package biz.vidal.jforkr.output;
+
+import java.io.PrintStream;
+
+/**
+ * Prints output lines to the standard output of the forking JVM, prefixed
+ * with the process name.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ConsoleOutputSink implements OutputSink {
+
+    private final PrintStream out;
+
+    public ConsoleOutputSink() {
+        this(System.out);
+    }
+
+    public ConsoleOutputSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(String processName, String line) {
+        out.println("[" + processName + "] " + line);
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+
+    @Override
+    public void close(String processName) {
+    }
+
+}
@@ -0,0 +1,72 @@
+package biz.vidal.jforkr.output;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends the output of each forked JVM to <code>&lt;processName&gt;.log</code>
+ * in a directory.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class FileOutputSink implements OutputSink {
+
+    private static Logger log = LoggerFactory.getLogger(FileOutputSink.class);
+
+    private final File directory;
+    private final Map<String, Writer> writers = new HashMap<String, Writer>();
+
+    public FileOutputSink(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public synchronized void write(String processName, String line) {
+        try {
+            Writer writer = writers.get(processName);
+            if (writer == null) {
+                directory.mkdirs();
+                writer = new BufferedWriter(new FileWriter(new File(directory, processName + ".log"), true));
+                writers.put(processName, writer);
+            }
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            log.warn("Could not write output of " + processName, e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        for (Entry<String, Writer> entry : writers.entrySet()) {
+            try {
+                entry.getValue().flush();
+            } catch (IOException e) {
+                log.warn("Could not write output of " + entry.getKey(), e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close(String processName) {
+        Writer writer = writers.remove(processName);
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("Could not write output of " + processName, e);
+            }
+        }
+    }
+
+}
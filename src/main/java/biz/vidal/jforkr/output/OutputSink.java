@@ -0,0 +1,26 @@
+package biz.vidal.jforkr.output;
+
+/**
+ * Receives the output of forked JVMs, line by line.
+ * <p>
+ * All the forked JVMs output is pumped by a single thread, so sinks are
+ * called from that thread only and must not block for long.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface OutputSink {
+
+    public void write(String processName, String line);
+
+    /**
+     * Called when no forked JVM has pending output.
+     */
+    public void flush();
+
+    /**
+     * Called once the forked JVM terminated and its output was fully written.
+     */
+    public void close(String processName);
+
+}
@@ -0,0 +1,48 @@
+package biz.vidal.jforkr.output;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs output lines at info level to a logger named after the process,
+ * <code>jforkr.output.&lt;processName&gt;</code> by default.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class Slf4jOutputSink implements OutputSink {
+
+    private final String loggerPrefix;
+    private final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<String, Logger>();
+
+    public Slf4jOutputSink() {
+        this("jforkr.output.");
+    }
+
+    public Slf4jOutputSink(String loggerPrefix) {
+        this.loggerPrefix = loggerPrefix;
+    }
+
+    @Override
+    public void write(String processName, String line) {
+        Logger logger = loggers.get(processName);
+        if (logger == null) {
+            logger = LoggerFactory.getLogger(loggerPrefix + processName);
+            loggers.put(processName, logger);
+        }
+        logger.info(line);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close(String processName) {
+        loggers.remove(processName);
+    }
+
+}
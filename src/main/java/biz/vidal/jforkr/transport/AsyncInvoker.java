@@ -0,0 +1,22 @@
+package biz.vidal.jforkr.transport;
+
+import java.lang.reflect.Method;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Implemented by service proxies of transports able to send a call without
+ * blocking the calling thread until its response arrives.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface AsyncInvoker {
+
+    /**
+     * @param method a method of the service interface
+     * @return a future of the method result
+     */
+    public ListenableFuture<Object> invokeAsync(Method method, Object[] args);
+
+}
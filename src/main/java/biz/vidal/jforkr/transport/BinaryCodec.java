@@ -0,0 +1,462 @@
+package biz.vidal.jforkr.transport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Compact codec for the values most calls carry.
+ * <p>
+ * Primitive wrappers, strings, arrays of primitives, strings and objects and
+ * the common collections are written as a one byte tag followed by their
+ * content, integers and lengths as variable length integers. Dispatch is on
+ * the exact class of the value so no reflection is involved.
+ * <p>
+ * This encoding does not preserve identity, so it is only used when the value
+ * is a tree of those types: if it holds any other value, including
+ * exceptions, or reaches the same array or collection twice, the whole value
+ * is written with Java serialization instead.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class BinaryCodec implements Codec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte CHAR = 5;
+    private static final byte INT = 6;
+    private static final byte LONG = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte STRING = 10;
+    private static final byte BYTES = 11;
+    private static final byte INTS = 12;
+    private static final byte LONGS = 13;
+    private static final byte DOUBLES = 14;
+    private static final byte STRINGS = 15;
+    private static final byte OBJECTS = 16;
+    private static final byte ARRAY_LIST = 17;
+    private static final byte LINKED_LIST = 18;
+    private static final byte HASH_SET = 19;
+    private static final byte LINKED_HASH_SET = 20;
+    private static final byte HASH_MAP = 21;
+    private static final byte LINKED_HASH_MAP = 22;
+    private static final byte FLOATS = 23;
+    private static final byte SHORTS = 24;
+    private static final byte CHARS = 25;
+    private static final byte BOOLEANS = 26;
+    private static final byte SERIALIZED = 127;
+
+    private static final Set<Class<?>> VALUE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(String.class, Integer.class, Long.class, Boolean.class, Double.class, Float.class, Byte.class, Short.class, Character.class));
+
+    private static final Set<Class<?>> ARRAY_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(byte[].class, int[].class, long[].class, double[].class, float[].class, short[].class, char[].class, boolean[].class));
+
+    private static final Set<Class<?>> COLLECTION_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class));
+
+    private static final Set<Class<?>> MAP_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(HashMap.class, LinkedHashMap.class));
+
+    private final JavaSerializationCodec fallback = new JavaSerializationCodec();
+
+    @Override
+    public void write(Object value, DataOutputStream out) throws IOException {
+        if (isTree(value, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()))) {
+            writeValue(value, out);
+        } else {
+            out.writeByte(SERIALIZED);
+            fallback.write(value, out);
+        }
+    }
+
+    /**
+     * @param visited the arrays and collections already reached
+     * @return whether the value only holds known types and reaches none of
+     *         its arrays and collections twice, which also rules out cycles
+     */
+    private static boolean isTree(Object value, Set<Object> visited) {
+        if (value == null) {
+            return true;
+        }
+        Class<?> type = value.getClass();
+        if (VALUE_TYPES.contains(type)) {
+            return true;
+        }
+        if (!visited.add(value)) {
+            return false;
+        }
+        if (ARRAY_TYPES.contains(type)) {
+            return true;
+        }
+        if (type == String[].class || type == Object[].class) {
+            for (Object element : (Object[]) value) {
+                if (!isTree(element, visited)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (COLLECTION_TYPES.contains(type)) {
+            for (Object element : (Collection<?>) value) {
+                if (!isTree(element, visited)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (MAP_TYPES.contains(type)) {
+            for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!isTree(entry.getKey(), visited) || !isTree(entry.getValue(), visited)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void writeValue(Object value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            out.writeByte(STRING);
+            writeString((String) value, out);
+        } else if (type == Integer.class) {
+            out.writeByte(INT);
+            writeVarLong((Integer) value, out);
+        } else if (type == Long.class) {
+            out.writeByte(LONG);
+            writeVarLong((Long) value, out);
+        } else if (type == Boolean.class) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (type == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (type == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (type == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (type == Short.class) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (type == Character.class) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (type == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            writeLength(bytes.length, out);
+            out.write(bytes);
+        } else if (type == int[].class) {
+            int[] ints = (int[]) value;
+            out.writeByte(INTS);
+            writeLength(ints.length, out);
+            for (int i : ints) {
+                writeVarLong(i, out);
+            }
+        } else if (type == long[].class) {
+            long[] longs = (long[]) value;
+            out.writeByte(LONGS);
+            writeLength(longs.length, out);
+            for (long l : longs) {
+                writeVarLong(l, out);
+            }
+        } else if (type == double[].class) {
+            double[] doubles = (double[]) value;
+            out.writeByte(DOUBLES);
+            writeLength(doubles.length, out);
+            for (double d : doubles) {
+                out.writeDouble(d);
+            }
+        } else if (type == float[].class) {
+            float[] floats = (float[]) value;
+            out.writeByte(FLOATS);
+            writeLength(floats.length, out);
+            for (float f : floats) {
+                out.writeFloat(f);
+            }
+        } else if (type == short[].class) {
+            short[] shorts = (short[]) value;
+            out.writeByte(SHORTS);
+            writeLength(shorts.length, out);
+            for (short sh : shorts) {
+                writeVarLong(sh, out);
+            }
+        } else if (type == char[].class) {
+            char[] chars = (char[]) value;
+            out.writeByte(CHARS);
+            writeLength(chars.length, out);
+            for (char c : chars) {
+                out.writeChar(c);
+            }
+        } else if (type == boolean[].class) {
+            boolean[] booleans = (boolean[]) value;
+            out.writeByte(BOOLEANS);
+            writeLength(booleans.length, out);
+            for (boolean b : booleans) {
+                out.writeBoolean(b);
+            }
+        } else if (type == String[].class) {
+            String[] strings = (String[]) value;
+            out.writeByte(STRINGS);
+            writeLength(strings.length, out);
+            for (String s : strings) {
+                writeValue(s, out);
+            }
+        } else if (type == Object[].class) {
+            Object[] objects = (Object[]) value;
+            out.writeByte(OBJECTS);
+            writeLength(objects.length, out);
+            for (Object o : objects) {
+                writeValue(o, out);
+            }
+        } else if (type == ArrayList.class) {
+            writeCollection(ARRAY_LIST, (Collection<?>) value, out);
+        } else if (type == LinkedList.class) {
+            writeCollection(LINKED_LIST, (Collection<?>) value, out);
+        } else if (type == HashSet.class) {
+            writeCollection(HASH_SET, (Collection<?>) value, out);
+        } else if (type == LinkedHashSet.class) {
+            writeCollection(LINKED_HASH_SET, (Collection<?>) value, out);
+        } else if (type == HashMap.class) {
+            writeMap(HASH_MAP, (Map<?, ?>) value, out);
+        } else if (type == LinkedHashMap.class) {
+            writeMap(LINKED_HASH_MAP, (Map<?, ?>) value, out);
+        } else {
+            throw new NotSerializableException(type.getName());
+        }
+    }
+
+    @Override
+    public Object read(DataInputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case BYTE:
+            return in.readByte();
+        case SHORT:
+            return in.readShort();
+        case CHAR:
+            return in.readChar();
+        case INT:
+            return (int) readVarLong(in);
+        case LONG:
+            return readVarLong(in);
+        case FLOAT:
+            return in.readFloat();
+        case DOUBLE:
+            return in.readDouble();
+        case STRING:
+            return readString(in);
+        case BYTES: {
+            byte[] bytes = new byte[readLength(in)];
+            in.readFully(bytes);
+            return bytes;
+        }
+        case INTS: {
+            int[] ints = new int[readLength(in)];
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = (int) readVarLong(in);
+            }
+            return ints;
+        }
+        case LONGS: {
+            long[] longs = new long[readLength(in)];
+            for (int i = 0; i < longs.length; i++) {
+                longs[i] = readVarLong(in);
+            }
+            return longs;
+        }
+        case DOUBLES: {
+            double[] doubles = new double[readLength(in)];
+            for (int i = 0; i < doubles.length; i++) {
+                doubles[i] = in.readDouble();
+            }
+            return doubles;
+        }
+        case FLOATS: {
+            float[] floats = new float[readLength(in)];
+            for (int i = 0; i < floats.length; i++) {
+                floats[i] = in.readFloat();
+            }
+            return floats;
+        }
+        case SHORTS: {
+            short[] shorts = new short[readLength(in)];
+            for (int i = 0; i < shorts.length; i++) {
+                shorts[i] = (short) readVarLong(in);
+            }
+            return shorts;
+        }
+        case CHARS: {
+            char[] chars = new char[readLength(in)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = in.readChar();
+            }
+            return chars;
+        }
+        case BOOLEANS: {
+            boolean[] booleans = new boolean[readLength(in)];
+            for (int i = 0; i < booleans.length; i++) {
+                booleans[i] = in.readBoolean();
+            }
+            return booleans;
+        }
+        case STRINGS: {
+            String[] strings = new String[readLength(in)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = (String) read(in, classLoader);
+            }
+            return strings;
+        }
+        case OBJECTS: {
+            Object[] objects = new Object[readLength(in)];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = read(in, classLoader);
+            }
+            return objects;
+        }
+        case ARRAY_LIST: {
+            int size = readLength(in);
+            return readElements(new ArrayList<Object>(size), size, in, classLoader);
+        }
+        case LINKED_LIST:
+            return readElements(new LinkedList<Object>(), readLength(in), in, classLoader);
+        case HASH_SET: {
+            int size = readLength(in);
+            return readElements(new HashSet<Object>(capacity(size)), size, in, classLoader);
+        }
+        case LINKED_HASH_SET: {
+            int size = readLength(in);
+            return readElements(new LinkedHashSet<Object>(capacity(size)), size, in, classLoader);
+        }
+        case HASH_MAP: {
+            int size = readLength(in);
+            return readEntries(new HashMap<Object, Object>(capacity(size)), size, in, classLoader);
+        }
+        case LINKED_HASH_MAP: {
+            int size = readLength(in);
+            return readEntries(new LinkedHashMap<Object, Object>(capacity(size)), size, in, classLoader);
+        }
+        case SERIALIZED:
+            return fallback.read(in, classLoader);
+        default:
+            throw new StreamCorruptedException("Unknown tag " + tag);
+        }
+    }
+
+    private void writeCollection(byte tag, Collection<?> collection, DataOutputStream out) throws IOException {
+        out.writeByte(tag);
+        writeLength(collection.size(), out);
+        for (Object element : collection) {
+            writeValue(element, out);
+        }
+    }
+
+    private void writeMap(byte tag, Map<?, ?> map, DataOutputStream out) throws IOException {
+        out.writeByte(tag);
+        writeLength(map.size(), out);
+        for (Entry<?, ?> entry : map.entrySet()) {
+            writeValue(entry.getKey(), out);
+            writeValue(entry.getValue(), out);
+        }
+    }
+
+    private Collection<Object> readElements(Collection<Object> collection, int size, DataInputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            collection.add(read(in, classLoader));
+        }
+        return collection;
+    }
+
+    private Map<Object, Object> readEntries(Map<Object, Object> map, int size, DataInputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            Object key = read(in, classLoader);
+            map.put(key, read(in, classLoader));
+        }
+        return map;
+    }
+
+    private static int capacity(int size) {
+        return Math.max((int) (size / .75f) + 1, 16);
+    }
+
+    private static void writeString(String s, DataOutputStream out) throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        writeLength(bytes.length, out);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeLength(int length, DataOutputStream out) throws IOException {
+        writeVarLong(length, out);
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new StreamCorruptedException("Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Zig-zag encoded so that small negative values are short too.
+     */
+    private static void writeVarLong(long value, DataOutputStream out) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length integer");
+    }
+
+}
@@ -0,0 +1,26 @@
+package biz.vidal.jforkr.transport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes call arguments, results and exceptions on the wire.
+ * <p>
+ * The forking JVM passes its codec class name to every forked JVM, which
+ * instantiates its own, so implementations must have a public no-arg
+ * constructor.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface Codec {
+
+    public void write(Object value, DataOutputStream out) throws IOException;
+
+    /**
+     * @param classLoader resolves the classes of the value
+     */
+    public Object read(DataInputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+
+}
@@ -0,0 +1,112 @@
+package biz.vidal.jforkr.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Wire format of the {@link SocketTransport}.
+ * <p>
+ * Every message is a frame made of a 4 bytes length followed by the body.
+ * Request body: type, call id, service name, method key, arguments.
+ * Response body: type, call id, result or exception.
+ * Arguments, results and exceptions are encoded by the transport's {@link Codec}.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+class Frames {
+
+    static final byte REQUEST = 0;
+    static final byte VALUE = 1;
+    static final byte EXCEPTION = 2;
+
+    private static final int LENGTH_SIZE = 4;
+
+    /**
+     * Default maximum frame body size, 256MB.
+     */
+    static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+    private Frames() {
+    }
+
+    /**
+     * Buffer reserving room for the frame length so that the frame can be
+     * sent without copying the body.
+     */
+    static class FrameOutput extends ByteArrayOutputStream {
+
+        final DataOutputStream data = new DataOutputStream(this);
+
+        FrameOutput(byte type, long id) throws IOException {
+            super(256);
+            count = LENGTH_SIZE;
+            data.writeByte(type);
+            data.writeLong(id);
+        }
+
+        ByteBuffer toFrame() {
+            int length = count - LENGTH_SIZE;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    static void write(WritableByteChannel channel, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    /**
+     * Reads a whole frame, blocking until it is available.
+     *
+     * @param maxFrameSize largest body accepted, larger frames are rejected
+     *        before allocating them
+     * @return the frame body
+     * @throws EOFException if the channel was closed by the other side
+     */
+    static DataInputStream read(ReadableByteChannel channel, ByteBuffer lengthBuffer, int maxFrameSize) throws IOException {
+        lengthBuffer.clear();
+        readFully(channel, lengthBuffer);
+        lengthBuffer.flip();
+        int length = lengthBuffer.getInt();
+        if (length < 0 || length > maxFrameSize) {
+            throw new IOException("Invalid frame length " + length + ", the maximum is " + maxFrameSize);
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(channel, body);
+        return new DataInputStream(new ByteArrayInputStream(body.array()));
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Identifies a method of a service interface on the wire.
+     */
+    static int methodKey(Method method) {
+        StringBuilder signature = new StringBuilder(method.getName()).append('(');
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            signature.append(parameterType.getName()).append(',');
+        }
+        return signature.append(')').toString().hashCode();
+    }
+
+}
@@ -0,0 +1,53 @@
+package biz.vidal.jforkr.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * Encodes values with Java serialization, values must be Serializable.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class JavaSerializationCodec implements Codec {
+
+    @Override
+    public void write(Object value, DataOutputStream out) throws IOException {
+        // Length prefixed as ObjectInputStream may read ahead
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(value);
+        oos.flush();
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    @Override
+    public Object read(DataInputStream in, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return readObject(new ByteArrayInputStream(bytes), classLoader);
+    }
+
+    static Object readObject(InputStream in, final ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(in) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    return super.resolveClass(desc);
+                }
+            }
+        };
+        return ois.readObject();
+    }
+
+}
@@ -0,0 +1,117 @@
+package biz.vidal.jforkr.transport;
+
+import static biz.vidal.jforkr.internal.RmiUtil.importService;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.NoSuchObjectException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.remoting.rmi.RmiServiceExporter;
+
+/**
+ * Default transport, exports services with Java RMI.
+ * <p>
+ * The forking JVM creates an RMI registry and forked JVMs bind their
+ * services in it, so every JVM shares the registry address. The registry
+ * listens on a port assigned by the system. Values always
+ * go through Java serialization, the configured {@link Codec} is ignored.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class RmiTransport implements Transport {
+
+    private static Logger log = LoggerFactory.getLogger(RmiTransport.class);
+
+    private static final String HOST = "localhost";
+
+    private String address;
+    private int registryPort;
+    private Registry registry;
+
+    /**
+     * Remembers the port the system assigned to the registry.
+     */
+    private static class RegistrySocketFactory implements RMIServerSocketFactory {
+        private volatile int port;
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            ServerSocket serverSocket = new ServerSocket(port);
+            this.port = serverSocket.getLocalPort();
+            return serverSocket;
+        }
+    }
+
+    @Override
+    public void setCodec(Codec codec) {
+        ; // RMI has its own wire format
+    }
+
+    @Override
+    public void start(String parentAddress) throws Exception {
+        if (parentAddress == null) {
+            RegistrySocketFactory socketFactory = new RegistrySocketFactory();
+            registry = LocateRegistry.createRegistry(0, null, socketFactory);
+            registryPort = socketFactory.port;
+            address = HOST + ":" + registryPort;
+            log.debug("RMI registry listening on {}", address);
+        } else {
+            address = parentAddress;
+            registryPort = port(parentAddress);
+        }
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public DisposableBean export(Object service, Class<?> serviceInterface, String serviceName) throws Exception {
+        log.debug("Exporting " + serviceInterface.getName() + " as " + serviceName);
+        RmiServiceExporter exporter = new RmiServiceExporter();
+        exporter.setService(service);
+        exporter.setServiceInterface(serviceInterface);
+        exporter.setRegistryPort(registryPort);
+        exporter.setRegistryHost(HOST);
+        exporter.setServiceName(serviceName);
+        try {
+            exporter.afterPropertiesSet();
+        } catch (RuntimeException e) {
+            log.error("Could not export {} as {}", serviceInterface, serviceName);
+            throw e;
+        }
+        return exporter;
+    }
+
+    @Override
+    public <T> T lookup(Class<T> serviceInterface, String address, String serviceName, long timeout, TimeUnit timeunit) {
+        return importService(serviceInterface, port(address), serviceName, timeout, timeunit);
+    }
+
+    @Override
+    public void stop() {
+        if (registry != null) {
+            try {
+                UnicastRemoteObject.unexportObject(registry, true);
+            } catch (NoSuchObjectException e) {
+                ; // ignore
+            }
+            registry = null;
+        }
+    }
+
+    static int port(String address) {
+        return Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+    }
+
+}
@@ -0,0 +1,174 @@
+package biz.vidal.jforkr.transport;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.RemoteConnectFailureException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import biz.vidal.jforkr.transport.Frames.FrameOutput;
+
+/**
+ * Client side of a {@link SocketTransport} connection. A single connection is
+ * shared by all the calls to a given JVM: requests are tagged with an id and
+ * responses are matched back to their caller by a reader thread, so several
+ * calls can be in flight at once.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+class SocketConnection implements Runnable {
+
+    private static Logger log = LoggerFactory.getLogger(SocketConnection.class);
+
+    private static class PendingCall {
+        final SettableFuture<Object> future = SettableFuture.create();
+        final ClassLoader classLoader;
+        /**
+         * Set before the request is written, once set the call may have run.
+         */
+        volatile boolean sent = false;
+
+        PendingCall(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+    }
+
+    private final String address;
+    private final Codec codec;
+    private final int maxFrameSize;
+    private final SocketChannel channel;
+    private final Object writeLock = new Object();
+    private final AtomicLong ids = new AtomicLong();
+    private final ConcurrentMap<Long, PendingCall> pending = new ConcurrentHashMap<Long, PendingCall>();
+    private volatile boolean closed = false;
+
+    SocketConnection(String address, Codec codec, int maxFrameSize) throws IOException {
+        this.address = address;
+        this.codec = codec;
+        this.maxFrameSize = maxFrameSize;
+        int sep = address.lastIndexOf(':');
+        this.channel = SocketChannel.open(new InetSocketAddress(address.substring(0, sep), Integer.parseInt(address.substring(sep + 1))));
+        this.channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * Sends a request without waiting for its response.
+     * <p>
+     * The future fails with a {@link RemoteConnectFailureException} only if
+     * the request was not sent, so that the call can safely be retried, and
+     * with a {@link RemoteAccessException} if the connection closed after or
+     * the arguments could not be encoded. The latter only fails this call.
+     *
+     * @param classLoader used to resolve the classes of the response
+     */
+    ListenableFuture<Object> send(String serviceName, int methodKey, Object[] args, ClassLoader classLoader) {
+        long id = ids.incrementAndGet();
+        PendingCall call = new PendingCall(classLoader);
+        FrameOutput out;
+        try {
+            out = new FrameOutput(Frames.REQUEST, id);
+            out.data.writeUTF(serviceName);
+            out.data.writeInt(methodKey);
+            codec.write(args, out.data);
+        } catch (Throwable e) {
+            // Encoded in memory, the connection is fine
+            call.future.setException(new RemoteAccessException("Could not encode request to " + address, e));
+            return call.future;
+        }
+        pending.put(id, call);
+        try {
+            call.sent = true;
+            synchronized (writeLock) {
+                Frames.write(channel, out.toFrame());
+            }
+        } catch (IOException e) {
+            // A partially written frame is never read
+            pending.remove(id);
+            close(e);
+            call.future.setException(new RemoteConnectFailureException("Could not send request to " + address, e));
+        }
+        if (closed) {
+            // Closed while sending, the reader thread may have missed this call
+            failPending(null);
+        }
+        return call.future;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        try {
+            while (!closed) {
+                DataInputStream in = Frames.read(channel, lengthBuffer, maxFrameSize);
+                byte type = in.readByte();
+                long id = in.readLong();
+                PendingCall call = pending.remove(id);
+                if (call == null) {
+                    log.warn("Dropping response to unknown call {} from {}", id, address);
+                    continue;
+                }
+                try {
+                    Object value = codec.read(in, call.classLoader);
+                    if (type == Frames.EXCEPTION) {
+                        call.future.setException((Throwable) value);
+                    } else {
+                        call.future.set(value);
+                    }
+                } catch (ClassNotFoundException e) {
+                    call.future.setException(new RemoteAccessException("Could not read response from " + address, e));
+                }
+            }
+        } catch (EOFException e) {
+            close(null);
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close(IOException cause) {
+        if (!closed) {
+            closed = true;
+            if (cause != null && log.isDebugEnabled()) {
+                log.debug("Closing connection to " + address, cause);
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ; // ignore
+            }
+        }
+        failPending(cause);
+    }
+
+    private void failPending(IOException cause) {
+        for (Entry<Long, PendingCall> entry : pending.entrySet()) {
+            PendingCall call = entry.getValue();
+            if (pending.remove(entry.getKey(), call)) {
+                if (call.sent) {
+                    call.future.setException(new RemoteAccessException("Connection to " + address + " closed during call", cause));
+                } else {
+                    call.future.setException(new RemoteConnectFailureException("Connection to " + address + " closed", cause));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,374 @@
+package biz.vidal.jforkr.transport;
+
+import static biz.vidal.jforkr.transport.Frames.methodKey;
+import static java.util.Collections.newSetFromMap;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.RemoteConnectFailureException;
+import org.springframework.remoting.RemoteLookupFailureException;
+
+import biz.vidal.jforkr.transport.Frames.FrameOutput;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Transport over persistent loopback socket connections.
+ * <p>
+ * Each JVM listens on an ephemeral loopback port. Calls to another JVM are
+ * multiplexed over a single connection using a compact binary framing, with
+ * values encoded by the configured {@link Codec}. This avoids the registry
+ * lookups, distributed garbage collection and per call connection management
+ * of RMI. Service proxies implement {@link AsyncInvoker}
+ * so that several calls can be in flight without a thread blocked on each.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class SocketTransport implements Transport {
+
+    private static Logger log = LoggerFactory.getLogger(SocketTransport.class);
+
+    private static final String HOST = "127.0.0.1";
+
+    private static class ExportedService {
+        final Object service;
+        final Map<Integer, Method> methods = new HashMap<Integer, Method>();
+
+        ExportedService(Object service, Class<?> serviceInterface) {
+            this.service = service;
+            for (Method method : serviceInterface.getMethods()) {
+                Method previous = methods.put(methodKey(method), method);
+                if (previous != null) {
+                    throw new IllegalArgumentException("Methods " + previous + " and " + method + " have the same key");
+                }
+            }
+        }
+    }
+
+    private Codec codec = new JavaSerializationCodec();
+    private int maxFrameSize = Frames.MAX_FRAME_SIZE;
+    private String address;
+    private ServerSocketChannel server;
+    private ExecutorService executor;
+    private volatile boolean stopped = false;
+    private final ConcurrentMap<String, ExportedService> services = new ConcurrentHashMap<String, ExportedService>();
+    private final ConcurrentMap<String, SocketConnection> connections = new ConcurrentHashMap<String, SocketConnection>();
+    private final Set<SocketChannel> accepted = newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+
+    @Override
+    public void start(String parentAddress) throws Exception {
+        executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jforkr-socket-%d").build());
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName(HOST), 0));
+        address = HOST + ":" + server.socket().getLocalPort();
+        log.debug("Listening on {}", address);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    @Override
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Largest message accepted from another JVM, defaults to 256MB. A frame
+     * announcing a larger or negative length closes the connection instead
+     * of being allocated.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public DisposableBean export(Object service, Class<?> serviceInterface, final String serviceName) throws Exception {
+        log.debug("Exporting " + serviceInterface.getName() + " as " + serviceName);
+        services.put(serviceName, new ExportedService(service, serviceInterface));
+        return new DisposableBean() {
+            @Override
+            public void destroy() {
+                services.remove(serviceName);
+            }
+        };
+    }
+
+    @Override
+    public <T> T lookup(Class<T> serviceInterface, String address, String serviceName, long timeout, TimeUnit timeunit) {
+        long timeoutMs = timeunit.toMillis(timeout);
+        long start = System.currentTimeMillis();
+        while (true) {
+            try {
+                connection(address);
+                break;
+            } catch (RemoteConnectFailureException e) {
+                if (System.currentTimeMillis() - start >= timeoutMs) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e1) {
+                    throw new RuntimeException("Interrupted while waiting for service to be available", e1);
+                }
+            }
+        }
+        ClassLoader classLoader = serviceInterface.getClassLoader();
+        Class<?>[] interfaces = isVisible(AsyncInvoker.class, classLoader) ? new Class<?>[] { serviceInterface, AsyncInvoker.class } : new Class<?>[] { serviceInterface };
+        return serviceInterface.cast(Proxy.newProxyInstance(classLoader, interfaces, new ServiceInvocationHandler(address, serviceName)));
+    }
+
+    private static boolean isVisible(Class<?> type, ClassLoader classLoader) {
+        try {
+            return Class.forName(type.getName(), false, classLoader) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the connection to the JVM at the given address, opening it if needed
+     */
+    SocketConnection connection(String address) {
+        SocketConnection connection = connections.get(address);
+        if (connection == null || connection.isClosed()) {
+            synchronized (connections) {
+                connection = connections.get(address);
+                if (connection == null || connection.isClosed()) {
+                    try {
+                        connection = new SocketConnection(address, codec, maxFrameSize);
+                    } catch (IOException e) {
+                        throw new RemoteConnectFailureException("Could not connect to " + address, e);
+                    }
+                    connections.put(address, connection);
+                    executor.execute(connection);
+                }
+            }
+        }
+        return connection;
+    }
+
+    private class ServiceInvocationHandler implements InvocationHandler {
+
+        private final String address;
+        private final String serviceName;
+
+        ServiceInvocationHandler(String address, String serviceName) {
+            this.address = address;
+            this.serviceName = serviceName;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return "SocketTransport proxy for " + serviceName + " at " + address;
+            }
+            if (method.getDeclaringClass() == AsyncInvoker.class) {
+                Method serviceMethod = (Method) args[0];
+                return connection(address).send(serviceName, methodKey(serviceMethod), (Object[]) args[1], serviceMethod.getDeclaringClass().getClassLoader());
+            }
+            try {
+                return connection(address).send(serviceName, methodKey(method), args, method.getDeclaringClass().getClassLoader()).get();
+            } catch (ExecutionException e) {
+                throw unwrap(e.getCause(), method);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteAccessException("Interrupted while calling " + serviceName + " at " + address, e);
+            }
+        }
+    }
+
+    static Throwable unwrap(Throwable cause, Method method) {
+        if (cause instanceof RuntimeException || cause instanceof Error) {
+            return cause;
+        }
+        for (Class<?> exceptionType : method.getExceptionTypes()) {
+            if (exceptionType.isInstance(cause)) {
+                return cause;
+            }
+        }
+        return new UndeclaredThrowableException(cause);
+    }
+
+    private void accept() {
+        while (!stopped) {
+            try {
+                final SocketChannel channel = server.accept();
+                channel.socket().setTcpNoDelay(true);
+                accepted.add(channel);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(channel);
+                    }
+                });
+            } catch (IOException e) {
+                if (!stopped) {
+                    log.warn("Failed to accept connection on " + address, e);
+                }
+            }
+        }
+    }
+
+    private void serve(final SocketChannel channel) {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        final Object writeLock = new Object();
+        try {
+            while (!stopped) {
+                final DataInputStream in = Frames.read(channel, lengthBuffer, maxFrameSize);
+                in.readByte();
+                final long id = in.readLong();
+                // Do not hold the reader while the call runs, other calls may be pending on this connection
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ByteBuffer response;
+                        try {
+                            response = invoke(id, in);
+                        } catch (RuntimeException e) {
+                            // The caller would wait forever for the response, fail all its calls instead
+                            log.warn("Could not encode response {}, closing the connection", id, e);
+                            try {
+                                channel.close();
+                            } catch (IOException e1) {
+                                ; // ignore
+                            }
+                            return;
+                        }
+                        synchronized (writeLock) {
+                            try {
+                                Frames.write(channel, response);
+                            } catch (IOException e) {
+                                log.debug("Could not send response {}", id, e);
+                            }
+                        }
+                    }
+                });
+            }
+        } catch (EOFException e) {
+            ; // closed by the other side
+        } catch (IOException e) {
+            if (!stopped) {
+                log.debug("Connection failed", e);
+            }
+        } finally {
+            accepted.remove(channel);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ; // ignore
+            }
+        }
+    }
+
+    private ByteBuffer invoke(long id, DataInputStream in) {
+        Object result;
+        byte type = Frames.VALUE;
+        try {
+            String serviceName = in.readUTF();
+            int methodKey = in.readInt();
+            ExportedService exported = services.get(serviceName);
+            if (exported == null) {
+                throw new RemoteLookupFailureException("No service " + serviceName + " exported at " + address);
+            }
+            Method method = exported.methods.get(methodKey);
+            if (method == null) {
+                throw new RemoteAccessException("No such method in service " + serviceName);
+            }
+            Object[] args = (Object[]) codec.read(in, exported.service.getClass().getClassLoader());
+            try {
+                result = method.invoke(exported.service, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        } catch (Throwable e) {
+            result = e;
+            type = Frames.EXCEPTION;
+        }
+        try {
+            FrameOutput out = new FrameOutput(type, id);
+            codec.write(result, out.data);
+            return out.toFrame();
+        } catch (Throwable e) {
+            try {
+                FrameOutput out = new FrameOutput(Frames.EXCEPTION, id);
+                codec.write(new RemoteAccessException("Could not send result: " + e), out.data);
+                return out.toFrame();
+            } catch (IOException e1) {
+                throw new IllegalStateException(e1);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            ; // ignore
+        }
+        for (SocketConnection connection : connections.values()) {
+            connection.close(null);
+        }
+        for (SocketChannel channel : accepted) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ; // ignore
+            }
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package biz.vidal.jforkr.transport;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Carries calls between the forking JVM and the forked JVMs.
+ * <p>
+ * The same transport class is instantiated in both JVMs: the forking JVM
+ * starts it first and passes its class name and address to every forked JVM
+ * which starts its own instance with that parent address. Implementations
+ * must therefore have a public no-arg constructor.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface Transport {
+
+    /**
+     * Sets the codec encoding call arguments and results, called before
+     * {@link #start(String)}. Transports relying on a fixed wire format may
+     * ignore it.
+     */
+    public void setCodec(Codec codec);
+
+    /**
+     * @param parentAddress null in the forking JVM, the address of the
+     *        forking JVM's transport in a forked JVM
+     */
+    public void start(String parentAddress) throws Exception;
+
+    /**
+     * @return the address other JVMs use to look up services exported by this JVM
+     */
+    public String getAddress();
+
+    /**
+     * Makes a service callable from other JVMs under the given name.
+     *
+     * @return a handle unexporting the service when destroyed
+     */
+    public DisposableBean export(Object service, Class<?> serviceInterface, String serviceName) throws Exception;
+
+    /**
+     * Creates a proxy for a service exported by the JVM at the given address,
+     * waiting for it to become available up to the given timeout.
+     */
+    public <T> T lookup(Class<T> serviceInterface, String address, String serviceName, long timeout, TimeUnit timeunit);
+
+    public void stop();
+
+}
@@ -0,0 +1,11 @@
+package biz.vidal.jforkr;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface Counter {
+
+	public int increment();
+
+}
@@ -0,0 +1,19 @@
+package biz.vidal.jforkr;
+
+/**
+ * Keeps its count in a static field, like the singletons and caches that
+ * dirty a forked JVM.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class CounterImpl implements Counter {
+
+	private static int count;
+
+	@Override
+	public synchronized int increment() {
+		return ++count;
+	}
+
+}
@@ -8,4 +8,6 @@ public interface Echo {
 
 	public String echo(String string);
 
+	public byte[] echoBytes(byte[] bytes);
+
 }
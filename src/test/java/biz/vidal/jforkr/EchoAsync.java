@@ -0,0 +1,15 @@
+package biz.vidal.jforkr;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Asynchronous mirror of {@link Echo}.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface EchoAsync {
+
+	public ListenableFuture<String> echo(String string);
+
+}
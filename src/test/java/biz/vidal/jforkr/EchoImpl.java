@@ -11,4 +11,9 @@ public class EchoImpl implements Echo {
 		return string;
 	}
 
+	@Override
+	public byte[] echoBytes(byte[] bytes) {
+		return bytes;
+	}
+
 }
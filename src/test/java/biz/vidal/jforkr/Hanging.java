@@ -0,0 +1,15 @@
+package biz.vidal.jforkr;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface Hanging {
+
+	/**
+	 * Stops the JVM shortly after returning, it keeps running but no longer
+	 * sends heartbeats nor answers calls.
+	 */
+	public void hang();
+
+}
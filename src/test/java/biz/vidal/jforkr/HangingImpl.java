@@ -0,0 +1,34 @@
+package biz.vidal.jforkr;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Hangs by sending SIGSTOP to its own process, like a JVM stuck in a long
+ * pause or swapped out.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class HangingImpl implements Hanging {
+
+	@Override
+	public void hang() {
+		final String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+		new Thread("hang") {
+			@Override
+			public void run() {
+				try {
+					// Let the call return first
+					Thread.sleep(100);
+					Runtime.getRuntime().exec(new String[] { "kill", "-STOP", pid });
+				} catch (InterruptedException e) {
+					; // exit
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}.start();
+	}
+
+}
@@ -1,11 +1,49 @@
 package biz.vidal.jforkr;
 
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.management.MBeanServer;
 
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import biz.vidal.jforkr.internal.ClassDataSharing;
+import biz.vidal.jforkr.internal.JvmControllerClientImpl;
+import biz.vidal.jforkr.output.ConsoleOutputSink;
+import biz.vidal.jforkr.output.FileOutputSink;
+import biz.vidal.jforkr.output.OutputSink;
+import biz.vidal.jforkr.transport.SocketTransport;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * @author <a href="http://vidal.biz">Cedric Vidal</a>
  *
@@ -37,4 +75,686 @@ public class JvmManagerTest {
 
 	}
 
+	@Test
+	public void testPool() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setPoolSize(1);
+		jvmManager.init();
+
+		try {
+			long deadline = System.currentTimeMillis() + 20000;
+			while (jvmManager.getIdleCount() < 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(100);
+			}
+			assertEquals(1, jvmManager.getIdleCount());
+
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			assertEquals("Echo", echoController.getProcessName());
+			assertEquals("Hello", echoController.getService().echo("Hello"));
+		} finally {
+			jvmManager.shutdown();
+		}
+
+	}
+
+	@Test
+	public void testOutput() throws Exception {
+		File outputDirectory = Files.createTempDir();
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setOutputSinks(Lists.<OutputSink>newArrayList(new ConsoleOutputSink(), new FileOutputSink(outputDirectory)));
+		jvmManager.setOutputBufferLines(100);
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			assertEquals("Hello", echoController.getService().echo("Hello"));
+			List<String> output = echoController.recentOutput();
+			assertTrue(output.size() <= 100);
+			assertTrue(Joiner.on('\n').join(output).contains("Booting"));
+		} finally {
+			jvmManager.shutdown();
+		}
+		assertTrue(Files.toString(new File(outputDirectory, "Echo.log"), Charsets.UTF_8).contains("Booting"));
+	}
+
+	@Test
+	public void testOutputWithoutBuffer() throws Exception {
+		File outputDirectory = Files.createTempDir();
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setOutputSinks(Lists.<OutputSink>newArrayList(new FileOutputSink(outputDirectory)));
+		jvmManager.setOutputBufferLines(0);
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			assertEquals("Hello", echoController.getService().echo("Hello"));
+			assertTrue(echoController.recentOutput().isEmpty());
+		} finally {
+			jvmManager.shutdown();
+		}
+		assertTrue(Files.toString(new File(outputDirectory, "Echo.log"), Charsets.UTF_8).contains("Booting"));
+	}
+
+	@Test
+	public void testFailureDetector() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setHeartbeatInterval(200);
+		jvmManager.setLease(2000);
+		final BlockingQueue<JvmHealth> changes = new LinkedBlockingQueue<JvmHealth>();
+		jvmManager.addHealthListener(new JvmHealthListener() {
+			@Override
+			public void healthChanged(JvmController<?> controller, JvmHealth previous, JvmHealth current) {
+				changes.add(current);
+			}
+		});
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			Thread.sleep(1000);
+			assertEquals(JvmHealth.ALIVE, echoController.getHealth());
+			assertTrue(changes.isEmpty());
+
+			// May be suspected first as heartbeats stop before the process exit is noticed
+			echoController.kill();
+			JvmHealth health;
+			do {
+				health = changes.poll(5, SECONDS);
+			} while (health == JvmHealth.SUSPECTED);
+			assertEquals(JvmHealth.DEAD, health);
+			assertEquals(JvmHealth.DEAD, echoController.getHealth());
+		} finally {
+			jvmManager.shutdown();
+		}
+	}
+
+	@Test
+	public void testKillHungJvms() throws Exception {
+		assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setHeartbeatInterval(200);
+		jvmManager.setLease(2000);
+		jvmManager.setKillHungJvms(true);
+		final BlockingQueue<JvmHealth> changes = new LinkedBlockingQueue<JvmHealth>();
+		jvmManager.addHealthListener(new JvmHealthListener() {
+			@Override
+			public void healthChanged(JvmController<?> controller, JvmHealth previous, JvmHealth current) {
+				changes.add(current);
+			}
+		});
+		jvmManager.init();
+
+		try {
+			JvmController<Hanging> hangingController = jvmManager.fork("Hanging", Hanging.class, HangingImpl.class);
+			hangingController.getService().hang();
+
+			assertEquals(JvmHealth.SUSPECTED, changes.poll(5, SECONDS));
+			assertEquals(JvmHealth.HUNG, changes.poll(5, SECONDS));
+			assertEquals(JvmHealth.DEAD, changes.poll(5, SECONDS));
+			assertFalse(hangingController.isAlive());
+		} finally {
+			jvmManager.shutdown();
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			for (int i = 0; i < 10; i++) {
+				echoController.getService().echo("Hello");
+			}
+
+			assertEquals(1, jvmManager.getForkCount());
+			ForkTiming timing = jvmManager.getRecentForks().get(0);
+			log.info("{}", timing);
+			assertEquals("Echo", timing.getProcessName());
+			assertTrue(timing.getBootMillis() > 0);
+			assertTrue(timing.getTotalMillis() >= timing.getBootMillis());
+
+			LatencyStats echoStats = null;
+			for (LatencyStats stats : jvmManager.getMethodStats()) {
+				if (stats.getName().equals("Echo#echo")) {
+					echoStats = stats;
+				}
+			}
+			log.info("{}", echoStats);
+			assertEquals(10, echoStats.getCount());
+			assertEquals(0, echoStats.getErrorCount());
+			assertTrue(echoStats.getP50Micros() <= echoStats.getMaxMicros());
+
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(1L, mBeanServer.getAttribute(jvmManager.getObjectName(), "ForkCount"));
+			assertEquals(1, mBeanServer.getAttribute(jvmManager.getObjectName(), "LiveJvmCount"));
+		} finally {
+			jvmManager.shutdown();
+		}
+	}
+
+	@Test
+	public void testIsolate() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setForkMode(ForkMode.ISOLATE);
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			Echo echo = echoController.getService();
+			assertEquals("Hello", echo.echo("Hello"));
+			byte[] bytes = new byte[] { 1, 2, 3 };
+			byte[] echoed = echo.echoBytes(bytes);
+			assertArrayEquals(bytes, echoed);
+			assertTrue("Arguments must be copied", bytes != echoed);
+			assertEquals(Arrays.<Object>asList("a", "b"), echoController.batch(new Batch<Echo>() {
+				@Override
+				public void record(Echo echo) {
+					echo.echo("a");
+					echo.echo("b");
+				}
+			}));
+			assertTrue(echoController.isAlive());
+			echoController.exit();
+			assertFalse(echoController.isAlive());
+			try {
+				echoController.getAsyncService(EchoAsync.class);
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException e) {
+				; // expected
+			}
+			try {
+				echoController.batch(new Batch<Echo>() {
+					@Override
+					public void record(Echo echo) {
+						echo.echo("a");
+					}
+				});
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException e) {
+				; // expected
+			}
+		} finally {
+			jvmManager.shutdown();
+		}
+	}
+
+	@Test
+	public void testRecycle() throws Exception {
+		for (ForkMode forkMode : ForkMode.values()) {
+			JvmManager jvmManager = new JvmManager();
+			jvmManager.setForkMode(forkMode);
+			jvmManager.init();
+
+			try {
+				JvmController<Counter> counterController = jvmManager.fork("Counter", Counter.class, CounterImpl.class);
+				Counter counter = counterController.getService();
+				assertEquals(1, counter.increment());
+				assertEquals(2, counter.increment());
+				counterController.recycle();
+				assertEquals("Static state must be reset in " + forkMode, 1, counter.increment());
+				assertEquals(2, counterController.getService().increment());
+				assertTrue(counterController.isAlive());
+				counterController.exit();
+				try {
+					counterController.recycle();
+					fail("Recycling should fail once exited in " + forkMode);
+				} catch (IllegalStateException e) {
+					; // expected
+				}
+			} finally {
+				jvmManager.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testServiceBindings() throws Exception {
+		for (ForkMode forkMode : ForkMode.values()) {
+			JvmManager jvmManager = new JvmManager();
+			jvmManager.setForkMode(forkMode);
+			jvmManager.init();
+
+			try {
+				JvmController<?> nodeController = jvmManager.fork("Node", new ServiceBindings().bind(Echo.class, EchoImpl.class).bind(Counter.class, CounterImpl.class));
+				assertEquals("Hello", nodeController.getService(Echo.class).echo("Hello"));
+				assertTrue(nodeController.getService() instanceof Echo);
+				Counter counter = nodeController.getService(Counter.class);
+				assertEquals(1, counter.increment());
+				nodeController.recycle();
+				assertEquals(1, counter.increment());
+				assertEquals("Hello", nodeController.getService(Echo.class).echo("Hello"));
+				try {
+					nodeController.getService(EchoAsync.class);
+					fail("EchoAsync is not bound in " + forkMode);
+				} catch (IllegalArgumentException e) {
+					; // expected
+				}
+			} finally {
+				jvmManager.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testExitListener() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.init();
+
+		try {
+			final BlockingQueue<JvmController<?>> exited = new LinkedBlockingQueue<JvmController<?>>();
+			final BlockingQueue<Integer> exitCodes = new LinkedBlockingQueue<Integer>();
+			jvmManager.addExitListener(new JvmExitListener() {
+				@Override
+				public void exited(JvmController<?> controller, Integer exitCode) {
+					exitCodes.add(exitCode);
+					exited.add(controller);
+				}
+			});
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			assertSame(echoController, jvmManager.getController(echoController.getUUID()));
+			assertSame(echoController, jvmManager.getControllerByProcessName("Echo"));
+			assertEquals(1, jvmManager.getLiveJvmCount());
+
+			echoController.exit();
+			assertSame(echoController, exited.poll(10, SECONDS));
+			assertEquals(Integer.valueOf(0), exitCodes.poll());
+			assertFalse(echoController.isAlive());
+			assertNull(jvmManager.getController(echoController.getUUID()));
+			assertNull(jvmManager.getControllerByProcessName("Echo"));
+			assertEquals(0, jvmManager.getLiveJvmCount());
+			assertNull("Exit is reported once", exited.poll(3 * jvmManager.getHeartbeatInterval(), MILLISECONDS));
+		} finally {
+			jvmManager.shutdown();
+		}
+	}
+
+	@Test
+	public void testForkReplicated() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.init();
+
+		try {
+			ReplicatedController<Echo> replicated = jvmManager.forkReplicated("Echo", Echo.class, EchoImpl.class, 3);
+			Echo echo = replicated.getService();
+			for (int i = 0; i < 6; i++) {
+				assertEquals("Hello", echo.echo("Hello"));
+			}
+			for (ReplicaStats stats : replicated.getReplicaStats()) {
+				assertEquals(stats.toString(), 2, stats.getCallCount());
+			}
+
+			JvmController<Echo> dead = replicated.getReplicas().get(0);
+			dead.kill();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (dead.isAlive() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertFalse(dead.isAlive());
+			for (int i = 0; i < 4; i++) {
+				assertEquals("Hello", echo.echo("Hello"));
+			}
+			List<ReplicaStats> stats = replicated.getReplicaStats();
+			assertFalse(stats.get(0).isAlive());
+			assertEquals(2, stats.get(0).getCallCount());
+			assertEquals(8, stats.get(1).getCallCount() + stats.get(2).getCallCount());
+		} finally {
+			jvmManager.shutdown();
+		}
+	}
+
+	@Test
+	public void testForkOptions() throws Exception {
+		List<String> inherited = Arrays.asList("-Xmx8g", "-XX:+UseG1GC", "-XX:+UseCompressedOops", "-Dfoo=bar", "-ea");
+		assertEquals(inherited, ForkOptions.defaults().vmArguments(inherited));
+		assertEquals(Arrays.asList("-XX:+UseCompressedOops", "-Dfoo=bar", "-ea", "-Xms16m", "-Xmx128m", "-XX:+UseSerialGC", "-XX:TieredStopAtLevel=1", "-Denv=test"),
+				ForkOptions.fastStartup().systemProperty("env", "test").vmArguments(inherited));
+		assertEquals(Arrays.asList("-ea", "-Xmx64m"), ForkOptions.defaults().inheritVmArguments(false).keepInherited("-ea").maxHeap("64m").vmArguments(inherited));
+		assertEquals(Arrays.asList("-Xmx8g", "-XX:+UseG1GC", "-XX:+UseCompressedOops", "-ea"), ForkOptions.defaults().dropInherited("-D").vmArguments(inherited));
+		List<String> longForms = Arrays.asList("-XX:InitialHeapSize=4g", "-XX:MaxHeapSize=8g", "-XX:-TieredCompilation", "-ea");
+		assertEquals(Arrays.asList("-ea", "-Xmx128m", "-XX:TieredStopAtLevel=1"), ForkOptions.defaults().maxHeap("128m").tieredStopAtLevel(1).vmArguments(longForms));
+
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class, ForkOptions.fastStartup());
+			assertEquals("Hello", echoController.getService().echo("Hello"));
+		} finally {
+			jvmManager.shutdown();
+		}
+	}
+
+	@Test
+	public void testLaunchModes() throws Exception {
+		for (LaunchMode launchMode : LaunchMode.values()) {
+			JvmManager jvmManager = new JvmManager();
+			jvmManager.setLaunchMode(launchMode);
+			jvmManager.init();
+
+			try {
+				JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+				assertEquals("Hello from " + launchMode, echoController.getService().echo("Hello from " + launchMode));
+			} finally {
+				jvmManager.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testLaunchFilesAreRewrittenIfTampered() throws Exception {
+		File launchDirectory = Files.createTempDir();
+		for (int i = 0; i < 2; i++) {
+			JvmManager jvmManager = new JvmManager();
+			jvmManager.setLaunchMode(LaunchMode.PATHING_JAR);
+			jvmManager.setLaunchDirectory(launchDirectory);
+			jvmManager.init();
+
+			try {
+				JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+				assertEquals("Hello", echoController.getService().echo("Hello"));
+			} finally {
+				jvmManager.shutdown();
+			}
+			File[] files = launchDirectory.listFiles();
+			assertEquals(1, files.length);
+			Files.write("Not a jar", files[0], Charsets.UTF_8);
+		}
+	}
+
+	@Test
+	public void testForkAll() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.init();
+
+		try {
+			List<JvmController<Echo>> echoControllers = jvmManager.forkAll("Echo", Echo.class, EchoImpl.class, 3).get(30, SECONDS);
+			assertEquals(3, echoControllers.size());
+			for (int i = 0; i < echoControllers.size(); i++) {
+				JvmController<Echo> echoController = echoControllers.get(i);
+				assertEquals("Echo-" + i, echoController.getProcessName());
+				assertEquals("Hello " + i, echoController.getService().echo("Hello " + i));
+			}
+		} finally {
+			jvmManager.shutdown();
+		}
+
+	}
+
+	@Test
+	public void testSocketTransport() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setTransport(new SocketTransport());
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			Echo echo = echoController.getService();
+			assertEquals("Hello", echo.echo("Hello"));
+			assertEquals(null, echo.echo(null));
+
+			echoController.exit();
+			assertEquals(0, ((JvmControllerClientImpl<Echo>) echoController).waitFor());
+		} finally {
+			jvmManager.shutdown();
+		}
+
+	}
+
+	@Test
+	public void testAsyncService() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setTransport(new SocketTransport());
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			EchoAsync echo = echoController.getAsyncService(EchoAsync.class);
+
+			List<ListenableFuture<String>> replies = new ArrayList<ListenableFuture<String>>();
+			for (int i = 0; i < 100; i++) {
+				replies.add(echo.echo("Hello " + i));
+			}
+			List<String> echoes = allAsList(replies).get(10, SECONDS);
+			for (int i = 0; i < 100; i++) {
+				assertEquals("Hello " + i, echoes.get(i));
+			}
+		} finally {
+			jvmManager.shutdown();
+		}
+
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			List<Object> echoes = echoController.batch(new Batch<Echo>() {
+				@Override
+				public void record(Echo echo) {
+					for (int i = 0; i < 1000; i++) {
+						echo.echo("Hello " + i);
+					}
+				}
+			});
+			assertEquals(1000, echoes.size());
+			for (int i = 0; i < 1000; i++) {
+				assertEquals("Hello " + i, echoes.get(i));
+			}
+			echoController.exit();
+			try {
+				echoController.batch(new Batch<Echo>() {
+					@Override
+					public void record(Echo echo) {
+						echo.echo("a");
+					}
+				});
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException e) {
+				; // expected
+			}
+		} finally {
+			jvmManager.shutdown();
+		}
+
+	}
+
+	@Test
+	public void testSharedBuffer() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setSharedBufferSize(16 * 1024 * 1024);
+		jvmManager.setSharedBufferSlots(2);
+		jvmManager.init();
+
+		try {
+			JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+			Echo echo = echoController.getService();
+
+			byte[] large = new byte[4 * 1024 * 1024];
+			new Random(0).nextBytes(large);
+			assertArrayEquals(large, echo.echoBytes(large));
+
+			byte[] small = new byte[] { 1, 2, 3 };
+			assertArrayEquals(small, echo.echoBytes(small));
+
+			byte[] tooLarge = new byte[jvmManager.getSharedBufferSize() + 1];
+			assertArrayEquals(tooLarge, echo.echoBytes(tooLarge));
+
+			// More concurrent calls than slots, the others go through the transport
+			final Echo concurrentEcho = echo;
+			ExecutorService executor = Executors.newFixedThreadPool(6);
+			try {
+				List<Future<Boolean>> echoes = new ArrayList<Future<Boolean>>();
+				for (int i = 0; i < 24; i++) {
+					final byte[] bytes = new byte[1024 * 1024];
+					new Random(i).nextBytes(bytes);
+					echoes.add(executor.submit(new Callable<Boolean>() {
+						@Override
+						public Boolean call() throws Exception {
+							return Arrays.equals(bytes, concurrentEcho.echoBytes(bytes));
+						}
+					}));
+				}
+				for (Future<Boolean> echoed : echoes) {
+					assertTrue(echoed.get());
+				}
+			} finally {
+				executor.shutdown();
+			}
+		} finally {
+			jvmManager.shutdown();
+		}
+
+	}
+
+	@Test
+	public void testClassDataSharingRecording() throws Exception {
+		File directory = Files.createTempDir();
+		ClassDataSharing archive = new ClassDataSharing(directory, "test");
+
+		String recording = archive.vmArguments("killed").get(0);
+		assertTrue(recording, recording.startsWith("-XX:ArchiveClassesAtExit="));
+		assertTrue(archive.vmArguments("other").isEmpty());
+
+		// Killed before writing the archive, the next fork records it again
+		archive.exited("killed");
+		recording = archive.vmArguments("recorder").get(0);
+		File recorded = new File(recording.substring(recording.indexOf('=') + 1));
+		assertFalse(recorded.equals(archive.getArchive()));
+		Files.write(new byte[] { 1 }, recorded);
+		archive.exited("recorder");
+
+		assertTrue(archive.getArchive().isFile());
+		assertFalse(recorded.exists());
+		assertEquals("-XX:SharedArchiveFile=" + archive.getArchive().getAbsolutePath(), archive.vmArguments("user").get(0));
+	}
+
+	@Test
+	public void testShutdownKillsStubbornJvms() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setShutdownTimeout(1000);
+		jvmManager.init();
+
+		JvmController<Echo> echoController = jvmManager.fork("Echo", Echo.class, EchoImpl.class);
+		JvmController<Stubborn> stubbornController = jvmManager.fork("Stubborn", Stubborn.class, StubbornImpl.class);
+		stubbornController.getService().delayExit(60000);
+
+		long start = System.currentTimeMillis();
+		List<JvmController<?>> killed = jvmManager.shutdownAndReport();
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals(1, killed.size());
+		assertSame(stubbornController, killed.get(0));
+		assertFalse(echoController.isAlive());
+		assertFalse(stubbornController.isAlive());
+		assertTrue("Shutdown took " + elapsed + " ms", elapsed < 5000);
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		for (ForkMode forkMode : ForkMode.values()) {
+			JvmManager jvmManager = new JvmManager();
+			jvmManager.setForkMode(forkMode);
+			jvmManager.setStreamChunkSize(10);
+			jvmManager.init();
+
+			try {
+				Repeater repeater = jvmManager.fork("Repeater", Repeater.class, RepeaterImpl.class).getService();
+
+				RemoteStream<String> stream = repeater.repeat("Hello", 1005);
+				for (int i = 0; i < 1005; i++) {
+					assertTrue(stream.hasNext());
+					assertEquals("Hello " + i, stream.next());
+				}
+				assertFalse(stream.hasNext());
+
+				// Only the consumed chunks are produced
+				RemoteStream<String> endless = repeater.repeat("Hello", Integer.MAX_VALUE);
+				for (int i = 0; i < 25; i++) {
+					assertEquals("Hello " + i, endless.next());
+				}
+				endless.close();
+				assertFalse(endless.hasNext());
+
+				assertEquals(0, repeater.openStreams());
+			} finally {
+				jvmManager.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testAbandonedStream() throws Exception {
+		JvmManager jvmManager = new JvmManager();
+		jvmManager.setStreamChunkSize(10);
+		jvmManager.setStreamLease(500);
+		jvmManager.init();
+
+		try {
+			Repeater repeater = jvmManager.fork("Repeater", Repeater.class, RepeaterImpl.class).getService();
+
+			// Pulled often enough, a stream outlives its lease
+			RemoteStream<String> slow = repeater.repeat("Hello", 30);
+			for (int i = 0; i < 30; i++) {
+				assertEquals("Hello " + i, slow.next());
+				Thread.sleep(30);
+			}
+			assertFalse(slow.hasNext());
+
+			RemoteStream<String> abandoned = repeater.repeat("Hello", Integer.MAX_VALUE);
+			assertEquals("Hello 0", abandoned.next());
+			assertEquals(1, repeater.openStreams());
+			long deadline = System.currentTimeMillis() + 5000;
+			while (repeater.openStreams() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(0, repeater.openStreams());
+			try {
+				for (int i = 1; i < 20; i++) {
+					abandoned.next();
+				}
+				fail("Expected the expired stream to fail");
+			} catch (IllegalStateException e) {
+				; // expected
+			}
+		} finally {
+			jvmManager.shutdown();
+		}
+	}
+
+	@Test
+	public void testEvents() throws Exception {
+		for (ForkMode forkMode : ForkMode.values()) {
+			JvmManager jvmManager = new JvmManager();
+			jvmManager.setForkMode(forkMode);
+			jvmManager.setEventDelay(50);
+			jvmManager.init();
+
+			try {
+				final BlockingQueue<String> requests = new LinkedBlockingQueue<String>();
+				Server server = jvmManager.fork("Server", new ServiceBindings()
+						.bind(Server.class, ServerImpl.class)
+						.listen(RequestListener.class, new RequestListener() {
+							@Override
+							public void received(String request) {
+								requests.add(request);
+							}
+						})).getService(Server.class);
+
+				for (int i = 0; i < 100; i++) {
+					server.handle("Request " + i);
+				}
+				for (int i = 0; i < 100; i++) {
+					assertEquals("Request " + i, requests.poll(5, SECONDS));
+				}
+			} finally {
+				jvmManager.shutdown();
+			}
+		}
+	}
+
 }
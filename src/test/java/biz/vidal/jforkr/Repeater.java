@@ -0,0 +1,20 @@
+package biz.vidal.jforkr;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface Repeater {
+
+	/**
+	 * @return the string count times, produced as the stream is iterated
+	 */
+	public RemoteStream<String> repeat(String string, int count);
+
+	/**
+	 * @return the number of streams returned by {@link #repeat(String, int)}
+	 *         neither iterated to their end nor closed
+	 */
+	public int openStreams();
+
+}
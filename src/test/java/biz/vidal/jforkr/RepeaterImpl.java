@@ -0,0 +1,59 @@
+package biz.vidal.jforkr;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class RepeaterImpl implements Repeater {
+
+	private final AtomicInteger openStreams = new AtomicInteger();
+
+	@Override
+	public RemoteStream<String> repeat(final String string, final int count) {
+		openStreams.incrementAndGet();
+		return new RemoteStream<String>() {
+			private int index = 0;
+			private boolean open = true;
+
+			@Override
+			public boolean hasNext() {
+				if (index < count) {
+					return true;
+				}
+				close();
+				return false;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return string + " " + index++;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public synchronized void close() {
+				index = count;
+				if (open) {
+					open = false;
+					openStreams.decrementAndGet();
+				}
+			}
+		};
+	}
+
+	@Override
+	public int openStreams() {
+		return openStreams.get();
+	}
+
+}
@@ -0,0 +1,18 @@
+package biz.vidal.jforkr;
+
+/**
+ * Mock server reporting the requests it receives to the forking JVM.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class ServerImpl implements Server {
+
+	private final RequestListener listener = EventSink.listener(RequestListener.class);
+
+	@Override
+	public void handle(String request) {
+		listener.received(request);
+	}
+
+}
@@ -0,0 +1,14 @@
+package biz.vidal.jforkr;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public interface Stubborn {
+
+	/**
+	 * Delays the exit of the JVM by the given number of milliseconds.
+	 */
+	public void delayExit(long millis);
+
+}
@@ -0,0 +1,26 @@
+package biz.vidal.jforkr;
+
+/**
+ * Delays its exit with a slow shutdown hook, like a JVM flushing caches or
+ * waiting on a stuck resource.
+ *
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class StubbornImpl implements Stubborn {
+
+	@Override
+	public void delayExit(final long millis) {
+		Runtime.getRuntime().addShutdownHook(new Thread("stubborn") {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(millis);
+				} catch (InterruptedException e) {
+					; // exit
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,56 @@
+package biz.vidal.jforkr.internal;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import biz.vidal.jforkr.JvmManager.EventReceiver;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class EventBatcherTest {
+
+	@Test
+	public void testDropsEventsWhileReceiverIsStuck() throws Exception {
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch unblocked = new CountDownLatch(1);
+		final AtomicInteger received = new AtomicInteger();
+		final AtomicInteger largestBatch = new AtomicInteger();
+		EventBatcher batcher = new EventBatcher(new EventReceiver() {
+			@Override
+			public void receive(String uuid, List<Event> events) {
+				sending.countDown();
+				try {
+					unblocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				received.addAndGet(events.size());
+				largestBatch.set(Math.max(largestBatch.get(), events.size()));
+			}
+		}, "uuid", 10);
+
+		Event event = new Event("Listener", "received", new Class<?>[0], new Object[0]);
+		batcher.publish(event);
+		assertTrue(sending.await(10, SECONDS));
+		int published = 2 * EventBatcher.MAX_PENDING;
+		for (int i = 1; i < published; i++) {
+			batcher.publish(event);
+		}
+		assertEquals(published - 1 - EventBatcher.MAX_PENDING, batcher.getDroppedCount());
+
+		unblocked.countDown();
+		batcher.close();
+		assertEquals(published - batcher.getDroppedCount(), received.get());
+		assertEquals(EventBatcher.MAX_BATCH_SIZE, largestBatch.get());
+	}
+
+}
@@ -0,0 +1,99 @@
+package biz.vidal.jforkr.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class BinaryCodecTest {
+
+	private BinaryCodec codec = new BinaryCodec();
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (Object value : new Object[] { null, true, false, (byte) -3, (short) 300, 'x', 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MIN_VALUE, 1.5f, -2.25d, "", "Hello wörld", TimeUnit.SECONDS }) {
+			assertEquals(value, roundTrip(value));
+		}
+		assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) roundTrip(new byte[] { 1, 2, 3 }));
+		assertArrayEquals(new int[] { -1, 0, 1 << 30 }, (int[]) roundTrip(new int[] { -1, 0, 1 << 30 }));
+		assertArrayEquals(new long[] { Long.MAX_VALUE, -5 }, (long[]) roundTrip(new long[] { Long.MAX_VALUE, -5 }));
+		assertArrayEquals(new double[] { 1.0, Double.NaN }, (double[]) roundTrip(new double[] { 1.0, Double.NaN }), 0);
+		assertArrayEquals(new float[] { -1.5f, Float.MAX_VALUE }, (float[]) roundTrip(new float[] { -1.5f, Float.MAX_VALUE }), 0);
+		assertArrayEquals(new short[] { Short.MIN_VALUE, 7 }, (short[]) roundTrip(new short[] { Short.MIN_VALUE, 7 }));
+		assertArrayEquals(new char[] { 'a', '\u00e9' }, (char[]) roundTrip(new char[] { 'a', '\u00e9' }));
+		assertTrue(Arrays.equals(new boolean[] { true, false }, (boolean[]) roundTrip(new boolean[] { true, false })));
+		assertArrayEquals(new String[] { "a", null }, (String[]) roundTrip(new String[] { "a", null }));
+		assertArrayEquals(new Object[] { 1, "b", null }, (Object[]) roundTrip(new Object[] { 1, "b", null }));
+	}
+
+	@Test
+	public void testCollections() throws Exception {
+		List<Object> list = new ArrayList<Object>(Arrays.<Object> asList(1, "two", 3L));
+		assertEquals(list, roundTrip(list));
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("list", list);
+		map.put("set", new LinkedHashSet<String>(Arrays.asList("c", "a", "b")));
+		Object read = roundTrip(map);
+		assertEquals(map, read);
+		assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<Object>((LinkedHashSet<?>) ((Map<?, ?>) read).get("set")));
+	}
+
+	@Test
+	public void testIdentity() throws Exception {
+		List<Object> shared = new ArrayList<Object>();
+		shared.add("shared");
+		Object[] args = (Object[]) roundTrip(new Object[] { shared, shared });
+		assertEquals(shared, args[0]);
+		assertSame(args[0], args[1]);
+
+		List<Object> cyclic = new ArrayList<Object>();
+		cyclic.add("cyclic");
+		cyclic.add(cyclic);
+		List<?> read = (List<?>) roundTrip(cyclic);
+		assertEquals("cyclic", read.get(0));
+		assertSame(read, read.get(1));
+	}
+
+	@Test
+	public void testSerializationFallback() throws Exception {
+		IllegalStateException exception = (IllegalStateException) roundTrip(new IllegalStateException("Boom"));
+		assertEquals("Boom", exception.getMessage());
+		assertEquals(Arrays.asList(1, 2), roundTrip(Arrays.asList(1, 2)));
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		Object[] args = new Object[] { "Hello", 42, new int[] { 1, 2, 3 } };
+		assertTrue(encode(codec, args).length < encode(new JavaSerializationCodec(), args).length / 4);
+	}
+
+	private Object roundTrip(Object value) throws Exception {
+		return codec.read(new DataInputStream(new ByteArrayInputStream(encode(codec, value))), getClass().getClassLoader());
+	}
+
+	private static byte[] encode(Codec codec, Object value) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		codec.write(value, new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+}
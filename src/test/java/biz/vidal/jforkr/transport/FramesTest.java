@@ -0,0 +1,49 @@
+package biz.vidal.jforkr.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class FramesTest {
+
+	@Test
+	public void testRead() throws Exception {
+		assertEquals(42, Frames.read(channel(4, 0, 0, 0, 42), ByteBuffer.allocate(4), 16).readInt());
+	}
+
+	@Test
+	public void testInvalidLength() throws Exception {
+		for (ReadableByteChannel channel : new ReadableByteChannel[] { channel(-1), channel(Integer.MAX_VALUE), channel(17) }) {
+			try {
+				Frames.read(channel, ByteBuffer.allocate(4), 16);
+				fail("Frame length should have been rejected");
+			} catch (IOException e) {
+				; // expected
+			}
+		}
+	}
+
+	/**
+	 * @return a channel holding a frame length followed by the given body bytes
+	 */
+	private static ReadableByteChannel channel(int length, int... body) {
+		ByteBuffer frame = ByteBuffer.allocate(4 + body.length);
+		frame.putInt(length);
+		for (int b : body) {
+			frame.put((byte) b);
+		}
+		return Channels.newChannel(new ByteArrayInputStream(frame.array()));
+	}
+
+}
@@ -0,0 +1,68 @@
+package biz.vidal.jforkr.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.RemoteConnectFailureException;
+
+/**
+ * @author <a href="http://vidal.biz">Cedric Vidal</a>
+ *
+ */
+public class SocketTransportTest {
+
+	public static interface Echo {
+		Object echo(Object value);
+	}
+
+	private SocketTransport transport;
+	private Echo echo;
+
+	@Before
+	public void setUp() throws Exception {
+		transport = new SocketTransport();
+		transport.start(null);
+		transport.export(new Echo() {
+			@Override
+			public Object echo(Object value) {
+				return value instanceof String ? value : new Object();
+			}
+		}, Echo.class, "echo");
+		echo = transport.lookup(Echo.class, transport.getAddress(), "echo", 10, TimeUnit.SECONDS);
+	}
+
+	@After
+	public void tearDown() {
+		transport.stop();
+	}
+
+	@Test
+	public void testUnserializableArgument() throws Exception {
+		try {
+			echo.echo(new Object());
+			fail("Argument should not have been encoded");
+		} catch (RemoteAccessException e) {
+			assertFalse(e instanceof RemoteConnectFailureException);
+		}
+		assertEquals("still connected", echo.echo("still connected"));
+	}
+
+	@Test
+	public void testUnserializableResult() throws Exception {
+		try {
+			echo.echo(1);
+			fail("Result should not have been encoded");
+		} catch (RemoteAccessException e) {
+			assertFalse(e instanceof RemoteConnectFailureException);
+		}
+		assertEquals("still connected", echo.echo("still connected"));
+	}
+
+}